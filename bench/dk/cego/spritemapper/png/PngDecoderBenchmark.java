@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.png;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import dk.cego.spritemapper.util.ArgbImages;
+
+/**
+ * Compare PngDecoder with ImageIO.read on all PNG files in a dir.
+ * 
+ * Usage: java PngDecoderBenchmark [dir] [passes]. Default dir is <code>graphics</code>.
+ * ImageIO results are normalized to <code>TYPE_INT_ARGB</code> as SpriteImporter used to do,
+ * and pixels of both decoders are checked to be the same before timing.
+ */
+public class PngDecoderBenchmark {
+	private static final int WARMUP_PASSES = 50;
+	
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "graphics");
+		int passes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.toLowerCase().endsWith(".png");
+			}
+		});
+		
+		if (files == null || files.length == 0) {
+			throw new IOException("No PNG file is found. Dir: " + dir.getPath());
+		}
+		
+		Arrays.sort(files);
+		int decoded = verify(files);
+		System.out.println(files.length + " files, " + decoded + " decoded by PngDecoder, " + passes + " passes.");
+		
+		// warm up both decoders before timing.
+		run(files, WARMUP_PASSES, false);
+		run(files, WARMUP_PASSES, true);
+		
+		double imageIO = run(files, passes, false);
+		double pngDecoder = run(files, passes, true);
+		
+		System.out.printf("ImageIO.read + normalize: %8.3f ms/pass%n", imageIO);
+		System.out.printf("PngDecoder.decode:        %8.3f ms/pass%n", pngDecoder);
+		System.out.printf("Speedup:                  %8.2fx%n", imageIO / pngDecoder);
+	}
+	
+	/**
+	 * Check both decoders produce the same pixels.
+	 * @return number of files PngDecoder can decode.
+	 */
+	private static int verify(File[] files) throws IOException {
+		int decoded = 0;
+		
+		for (File file : files) {
+			BufferedImage a = PngDecoder.decode(file);
+			
+			if (a == null) {
+				continue;
+			}
+			
+			BufferedImage b = ArgbImages.normalize(ImageIO.read(file));
+			int w = a.getWidth(), h = a.getHeight();
+			
+			if (w != b.getWidth() || h != b.getHeight() ||
+					!Arrays.equals(a.getRGB(0, 0, w, h, null, 0, w), b.getRGB(0, 0, w, h, null, 0, w))) {
+				throw new IOException("Decoded pixels differ from ImageIO. File: " + file.getPath());
+			}
+			
+			decoded++;
+		}
+		
+		return decoded;
+	}
+	
+	/**
+	 * Decode all files for passes times.
+	 * @return average milliseconds per pass.
+	 */
+	private static double run(File[] files, int passes, boolean pngDecoder) throws IOException {
+		long pixels = 0;
+		long start = System.nanoTime();
+		
+		for (int i = 0; i < passes; i++) {
+			for (File file : files) {
+				BufferedImage image = pngDecoder ? PngDecoder.decode(file) : null;
+				
+				// fall back like FileSpriteSource does.
+				if (image == null) {
+					image = ArgbImages.normalize(ImageIO.read(file));
+				}
+				
+				pixels += image.getWidth() * image.getHeight();
+			}
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		
+		// use result, so that decoding is not optimized away.
+		if (pixels == 0) {
+			System.out.println("No pixel is decoded.");
+		}
+		
+		return elapsed / 1e6 / passes;
+	}
+}
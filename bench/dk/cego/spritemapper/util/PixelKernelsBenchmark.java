@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH comparison of scalar and Vector API scan kernels on one row of pixels.
+ * Run it with <code>ant bench-kernels -Djmh.dir=DIR</code>, where DIR contains JMH jars.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PixelKernelsBenchmark {
+	private static final int ALPHA_MASK = 0xff000000;
+
+	@Param({"scalar", "vector"})
+	public String kernels;
+
+	@Param({"64", "1024"})
+	public int width;
+
+	private ScanKernels scan;
+
+	// transparent row with color noise, rows with one opaque pixel near left and right end.
+	private int[] transparent;
+	private int[] left;
+	private int[] right;
+	private int[] rightCopy;
+
+	@Setup
+	public void setup() {
+		scan = kernels.equals("vector") ? new VectorScanKernels() : new ScalarScanKernels();
+
+		Random random = new Random(1);
+		transparent = new int[width];
+
+		for (int i = 0; i < width; i++) {
+			transparent[i] = random.nextInt() & ~ALPHA_MASK;
+		}
+
+		left = transparent.clone();
+		left[width / 4] |= ALPHA_MASK;
+		right = transparent.clone();
+		right[width * 3 / 4] |= ALPHA_MASK;
+		rightCopy = right.clone();
+	}
+
+	@Benchmark
+	public boolean isTransparent() {
+		return scan.isTransparent(transparent, 0, width, ALPHA_MASK);
+	}
+
+	@Benchmark
+	public int indexOfOpaque() {
+		return scan.indexOfOpaque(right, 0, width, ALPHA_MASK);
+	}
+
+	@Benchmark
+	public int lastIndexOfOpaque() {
+		return scan.lastIndexOfOpaque(left, 0, width, ALPHA_MASK);
+	}
+
+	@Benchmark
+	public boolean equals() {
+		return scan.equals(right, 0, rightCopy, 0, width);
+	}
+}
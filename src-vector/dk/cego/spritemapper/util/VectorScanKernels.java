@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scan loops on the Vector API. It's built separately with JDK 17 or later and only loaded
+ * by {@link PixelKernels} when the <code>jdk.incubator.vector</code> module is added.
+ * Results are the same as {@link ScalarScanKernels}.
+ */
+public class VectorScanKernels implements ScanKernels {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	public boolean isTransparent(int[] pixels, int offset, int length, int alphaMask) {
+		int end = offset + length;
+		int i = offset;
+
+		for (int bound = offset + SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+			if (opaque(pixels, i, alphaMask).anyTrue()) {
+				return false;
+			}
+		}
+
+		for (; i < end; i++) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int indexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		int i = from;
+
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			VectorMask<Integer> m = opaque(pixels, i, alphaMask);
+
+			if (m.anyTrue()) {
+				return i + m.firstTrue();
+			}
+		}
+
+		for (; i < to; i++) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public int lastIndexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		int i = to;
+
+		// scan vectors backwards from the end. leftover pixels are at the beginning.
+		for (int bound = to - SPECIES.loopBound(to - from); i > bound; i -= SPECIES.length()) {
+			VectorMask<Integer> m = opaque(pixels, i - SPECIES.length(), alphaMask);
+
+			if (m.anyTrue()) {
+				return i - SPECIES.length() + m.lastTrue();
+			}
+		}
+
+		for (i--; i >= from; i--) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public boolean equals(int[] a, int aOffset, int[] b, int bOffset, int length) {
+		int i = 0;
+
+		for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+			IntVector va = IntVector.fromArray(SPECIES, a, aOffset + i);
+			IntVector vb = IntVector.fromArray(SPECIES, b, bOffset + i);
+
+			if (va.compare(VectorOperators.NE, vb).anyTrue()) {
+				return false;
+			}
+		}
+
+		for (; i < length; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static VectorMask<Integer> opaque(int[] pixels, int offset, int alphaMask) {
+		return IntVector.fromArray(SPECIES, pixels, offset).and(alphaMask).compare(VectorOperators.NE, 0);
+	}
+}
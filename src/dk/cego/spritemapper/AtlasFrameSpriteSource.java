@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import dk.cego.spritemapper.util.ArgbImages;
+import dk.cego.spritemapper.util.PixelKernels;
+
+/**
+ * A frame in an existing sprite map page.
+ * 
+ * Frame only contains pixels in color rect of original image. Pixels outside of it are transparent.
+ */
+public class AtlasFrameSpriteSource implements SpriteSource {
+	private SpriteAtlas atlas;
+	private Rectangle frame;
+	private boolean rotated;
+	private Rectangle colorRect;
+	private int width;
+	private int height;
+	
+	/**
+	 * @param atlas
+	 * @param frame frame position in page and its size before rotation.
+	 * @param rotated whether frame is rotated 90 degrees clockwise in page.
+	 * @param colorRect
+	 * @param width original image width.
+	 * @param height original image height.
+	 */
+	public AtlasFrameSpriteSource(SpriteAtlas atlas, Rectangle frame, boolean rotated, Rectangle colorRect, int width, int height) {
+		this.atlas = atlas;
+		this.frame = frame;
+		this.rotated = rotated;
+		this.colorRect = colorRect;
+		this.width = width;
+		this.height = height;
+	}
+	
+	public SpriteAtlas getAtlas() {
+		return atlas;
+	}
+
+	@Override
+	public Dimension probe() throws IOException {
+		return new Dimension(width, height);
+	}
+
+	@Override
+	public BufferedImage read() throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		copyFrame(image, colorRect.x, colorRect.y);
+		return image;
+	}
+
+	@Override
+	public BufferedImage read(Rectangle region) throws IOException {
+		if (region.x == colorRect.x && region.y == colorRect.y && region.w == colorRect.w && region.h == colorRect.h) {
+			// frame is not rotated. share pixels with page.
+			if (!rotated && frame.w > 0 && frame.h > 0) {
+				BufferedImage page = atlas.getPage();
+				checkFrame(page);
+				return page.getSubimage(frame.x, frame.y, frame.w, frame.h);
+			}
+			
+			BufferedImage image = new BufferedImage(frame.w, frame.h, BufferedImage.TYPE_INT_ARGB);
+			copyFrame(image, 0, 0);
+			return image;
+		}
+		
+		return FileSpriteSource.crop(read(), region);
+	}
+	
+	/**
+	 * Copy frame pixels to image at (dx, dy) and undo rotation.
+	 */
+	private void copyFrame(BufferedImage image, int dx, int dy) throws IOException {
+		if (frame.w == 0 || frame.h == 0) {
+			return;
+		}
+		
+		BufferedImage page = atlas.getPage();
+		checkFrame(page);
+		int[] src = ArgbImages.data(page);
+		int srcOffset = ArgbImages.offset(page) + frame.y * ArgbImages.scanlineStride(page) + frame.x;
+		int srcStride = ArgbImages.scanlineStride(page);
+		int[] dst = ArgbImages.data(image);
+		int dstOffset = ArgbImages.offset(image) + dy * ArgbImages.scanlineStride(image) + dx;
+		int dstStride = ArgbImages.scanlineStride(image);
+		
+		// frame may be rotated clockwise in page.
+		PixelKernels.copy(src, srcOffset, srcStride, dst, dstOffset, dstStride, frame.w, frame.h, rotated);
+	}
+	
+	private void checkFrame(BufferedImage page) throws IOException {
+		int pageW = rotated ? frame.h : frame.w;
+		int pageH = rotated ? frame.w : frame.h;
+		
+		if (frame.x < 0 || frame.y < 0 || frame.x + pageW > page.getWidth() || frame.y + pageH > page.getHeight()) {
+			throw new IOException("Frame is out of sprite map. Frame: " + frame + ", File: " + atlas.getTexture().getPath());
+		}
+	}
+	
+	public String toString() {
+		return "AtlasFrameSpriteSource(" + atlas.getTexture().getPath() + "," + frame + ")";
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * A sprite source which can read encoded image data and decode it in separated steps,
+ * so that I/O and decoding can run in different threads.
+ */
+public interface EncodedSpriteSource extends SpriteSource {
+	/**
+	 * Read encoded image data.
+	 * @return encoded data or null if source cannot read it separately. Use {@link #read()} instead in this case.
+	 * @throws IOException
+	 */
+	public byte[] readEncoded() throws IOException;
+	
+	/**
+	 * Decode data returned by {@link #readEncoded()}. Result is the same as {@link #read()}.
+	 * @param encoded
+	 * @return
+	 * @throws IOException
+	 */
+	public BufferedImage decode(byte[] encoded) throws IOException;
+}
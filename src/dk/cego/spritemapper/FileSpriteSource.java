@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import dk.cego.spritemapper.png.PngDecoder;
+import dk.cego.spritemapper.util.ArgbImages;
+
+/**
+ * Image file on disk.
+ */
+public class FileSpriteSource implements EncodedSpriteSource {
+	private File file;
+	
+	public FileSpriteSource(File file) {
+		this.file = file;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public Dimension probe() throws IOException {
+		Dimension d = PngDecoder.probe(file);
+		
+		if (d != null) {
+			return d;
+		}
+		
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		
+		if (in == null) {
+			throw new IOException("Cannot open image file. File: " + file.getPath());
+		}
+		
+		try {
+			return probe(in, file.getPath());
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read image size from header with ImageIO.
+	 * @param in
+	 * @param path used in error message.
+	 * @return
+	 * @throws IOException
+	 */
+	static Dimension probe(ImageInputStream in, String path) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		
+		if (!readers.hasNext()) {
+			throw new IOException("Unsupported image format. File: " + path);
+		}
+		
+		ImageReader reader = readers.next();
+		
+		try {
+			// only header is read here. pixels are not decoded.
+			reader.setInput(in, true, true);
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	@Override
+	public BufferedImage read() throws IOException {
+		// most sprites are PNG. decode them without ImageIO if possible.
+		BufferedImage image = PngDecoder.decode(file);
+		
+		if (image != null) {
+			return image;
+		}
+		
+		image = ImageIO.read(file);
+		
+		if (image == null) {
+			throw new IOException("Unsupported image format. File: " + file.getPath());
+		}
+		
+		return ArgbImages.normalize(image);
+	}
+
+	@Override
+	public BufferedImage read(Rectangle region) throws IOException {
+		return crop(read(), region);
+	}
+	
+	@Override
+	public byte[] readEncoded() throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading.
+			}
+			
+			return buffer.array();
+		} finally {
+			in.close();
+		}
+	}
+	
+	@Override
+	public BufferedImage decode(byte[] encoded) throws IOException {
+		return decode(encoded, file.getPath());
+	}
+	
+	/**
+	 * Decode image data in memory.
+	 * @param encoded
+	 * @param path used in error message.
+	 * @return
+	 * @throws IOException
+	 */
+	static BufferedImage decode(byte[] encoded, String path) throws IOException {
+		BufferedImage image = PngDecoder.decode(ByteBuffer.wrap(encoded));
+		
+		if (image != null) {
+			return image;
+		}
+		
+		image = ImageIO.read(new ByteArrayInputStream(encoded));
+		
+		if (image == null) {
+			throw new IOException("Unsupported image format. File: " + path);
+		}
+		
+		return ArgbImages.normalize(image);
+	}
+	
+	/**
+	 * Crop image to region. Returned image shares pixels with original one.
+	 * @param image
+	 * @param region
+	 * @return
+	 */
+	public static BufferedImage crop(BufferedImage image, Rectangle region) {
+		if (region.x == 0 && region.y == 0 && region.w == image.getWidth() && region.h == image.getHeight()) {
+			return image;
+		}
+		
+		return image.getSubimage(region.x, region.y, region.w, region.h);
+	}
+	
+	public String toString() {
+		return "FileSpriteSource(" + file.getPath() + ")";
+	}
+}
@@ -1,6 +1,5 @@
 /**
- * Copyright (C) 2011 CEGO ApS
- * Written by Robert Larsen <robert@komogvind.dk> for CEGO ApS
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -15,20 +14,16 @@
  * You should have received a copy of the GNU General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-package dk.cego.spritemapper.util;
+package dk.cego.spritemapper;
 
-import dk.cego.spritemapper.Sprite;
-import dk.cego.spritemapper.Rectangle;
-
-public class SpriteFitFilter implements Filter<Rectangle> {
-    private Sprite sprite;
-
-    public SpriteFitFilter(Sprite sprite) {
-        this.sprite = sprite;
-    }
+/**
+ * Thrown by a layouter when its layout cannot be better than one found by another layouter.
+ */
+public class LayoutAbortedException extends RuntimeException {
+	// it's a fake version uid. however, javac requires it. 
+	static final long serialVersionUID = 0L;
 
-    public boolean filter(Rectangle rect) {
-        return sprite.fits(rect) || sprite.rotate().fits(rect);
-    }
+	public LayoutAbortedException() {
+		super("Layout aborted.");
+	}
 }
-
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lower bound of the area an optimal layouter scores a layout with, updated while sprites are placed.
+ * Layouts are aborted once the bound exceeds the best area of layouters tried with the same best value.
+ * The bound is only valid if sprites are placed map by map.
+ */
+public class LayoutBound {
+	private int border;
+	private boolean usePOTSize;
+	private AtomicLong best;
+
+	// sprite area not on finished maps and area of finished maps.
+	private long remainingArea = 0;
+	private long finishedArea = 0;
+
+	private int mapNumber = 0;
+	private long mapArea = 0;
+	private int width = 0;
+	private int height = 0;
+	private boolean valid = true;
+
+	LayoutBound(int border, boolean usePOTSize, AtomicLong best, List<Sprite> sprites) {
+		this.border = border;
+		this.usePOTSize = usePOTSize;
+		this.best = best;
+
+		for (Sprite s : sprites) {
+			remainingArea += s.area();
+		}
+	}
+
+	/**
+	 * Add a placed sprite to the bound.
+	 * @throws LayoutAbortedException if the layout cannot be better than the best one.
+	 */
+	void place(Sprite s) {
+		if (!valid) {
+			return;
+		}
+
+		if (s.mapNumber != mapNumber) {
+			// layouter went back to a finished map. we cannot tell how much it grows.
+			if (s.mapNumber < mapNumber) {
+				valid = false;
+				return;
+			}
+
+			finishedArea += OptimalLayouter.area(width, height, border, usePOTSize);
+			remainingArea -= mapArea;
+			mapNumber = s.mapNumber;
+			mapArea = 0;
+			width = 0;
+			height = 0;
+		}
+
+		mapArea += s.area();
+		width = Math.max(width, s.right());
+		height = Math.max(height, s.bottom());
+
+		// current and following maps must hold the current map's sprites and all remaining ones.
+		long area = finishedArea + Math.max(OptimalLayouter.area(width, height, border, usePOTSize), remainingArea);
+
+		if (area > best.get()) {
+			throw new LayoutAbortedException();
+		}
+	}
+
+	/**
+	 * Make area of a finished layout the best one if it's smaller.
+	 */
+	void finish(List<Sprite> sprites, int mapNumber) {
+		long area = 0;
+
+		for (Dimension d : Sprite.dimensions(sprites, mapNumber)) {
+			area += OptimalLayouter.area(d.width, d.height, border, usePOTSize);
+		}
+
+		for (long current = best.get(); area < current; current = best.get()) {
+			if (best.compareAndSet(current, area)) {
+				break;
+			}
+		}
+	}
+}
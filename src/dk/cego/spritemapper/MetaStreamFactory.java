@@ -22,6 +22,10 @@ public class MetaStreamFactory {
     		return new Zwoptex2MetaStream();
     	}
     	
+    	if (type.equals("polygon")) {
+    		return new PolygonMetaStream();
+    	}
+    	
     	throw new RuntimeException("Unknown meta data format. Format: " + type);
 	}
 }
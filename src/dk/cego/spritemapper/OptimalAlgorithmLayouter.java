@@ -18,7 +18,8 @@
 package dk.cego.spritemapper;
 
 import dk.cego.spritemapper.guillotine.OptimalGuillotineLayouter;
-import dk.cego.spritemapper.shelf.ShelfLayouter;
+import dk.cego.spritemapper.shelf.OptimalShelfLayouter;
+import dk.cego.spritemapper.skyline.OptimalSkylineLayouter;
 import dk.cego.spritemapper.maxrects.OptimalMaxRectsLayouter;
 
 import java.util.Map;
@@ -34,7 +35,8 @@ public class OptimalAlgorithmLayouter extends OptimalLayouter {
     public OptimalAlgorithmLayouter() {
     	layouterNames = new TreeMap<String, SpriteLayouter>();
     	layouterNames.put("guillotine", new OptimalGuillotineLayouter());
-    	layouterNames.put("shelf", new ShelfLayouter());
+    	layouterNames.put("shelf", new OptimalShelfLayouter());
+    	layouterNames.put("skyline", new OptimalSkylineLayouter());
     	layouterNames.put("maxrects", new OptimalMaxRectsLayouter());
     }
 
@@ -18,9 +18,16 @@
 package dk.cego.spritemapper;
 
 import java.awt.Dimension;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This layouter contains a list of layouters and
@@ -32,6 +39,7 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
     private LinkedList<SpriteLayouter> layouters;
     private SpriteLayouter lastUsed;
     private boolean usePOTSize = false;
+    private int threads = 1;
 
     public OptimalLayouter() {
         this.layouters = new LinkedList<SpriteLayouter>();
@@ -61,8 +69,15 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
     }
 
     /**
-     * @throws NullPointerException if no layouters have been added to this instance.
+     * Set number of threads used to try layouters. Result doesn't depend on number of threads.
+     * Layouters are shared by threads, so they must not keep state between layouts.
+     * @param threads 1 or less means trying layouters on caller thread.
      */
+    public OptimalLayouter setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
     public int layout(int maxWidth, int maxHeight, List<Sprite> sprites) {
         if (usePOTSize) {
             maxWidth = toLowerPOT(maxWidth);
@@ -96,10 +111,9 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
     }
 
     /**
-     * Find and return the layouter which packs the listed sprites to the
-     * smallest area. If no layouters have been added null is returned.
-     * @return return the layouter which packs the listed sprites to the
-     * smallest area or null if no layouters have been added yet.
+     * Find the layouter which packs the listed sprites to the smallest area and
+     * use its layout. Ties go to the layouter added first.
+     * @return number of sprite maps in optimal layout.
      */
     private int findOptimal(int maxWidth, int maxHeight, List<Sprite> sprites) {
         SpriteLayouter optimal = null;
@@ -116,64 +130,185 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
             return 0;
         }
 
+        List<Sprite> prepared = prepare(sprites);
+
         // we only use one layouter by default.
-        if (layouters.size() == 1) {
+        if (layouters.size() == 1 && !isExpandable(layouters.get(0), maxWidth)) {
             try {
                 optimal = layouters.get(0);
                 lastUsed = optimal;
                 
-                return optimal.setSpacing(getSpacing())
-                .layout(maxWidth, maxHeight, sprites);
+                int mapNumber = optimal.setSpacing(getSpacing())
+                .setBound(getBound())
+                .layout(maxWidth, maxHeight, prepared);
+
+                if (prepared != sprites) {
+                    sprites.clear();
+                    sprites.addAll(prepared);
+                }
+
+                return mapNumber;
+            } catch (LayoutAbortedException e) {
+                throw e;
             } catch (RuntimeException re) {
                 // nothing
+            } finally {
+                optimal.setBound(null);
             }
             
             return 0;
         }
 
-        List<Sprite> optimizedSprites = null;
-        int minArea = 0;
-        float minFactor = 0f;
-        int mapNumber = 0;
+        // layouters of nested optimal layouters are evaluated together with ours.
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        collect(candidates, maxWidth, maxHeight, prepared);
+        evaluate(candidates);
+
+        Candidate result = select(candidates.iterator(), maxWidth, maxHeight);
+
+        if (result == null) {
+            throw new RuntimeException("No layouter can layout sprites.");
+        }
+
+        sprites.clear();
+        sprites.addAll(result.sprites);
+        return result.mapNumber;
+    }
+
+    /**
+     * Add a candidate for every layouter. Layouters of a nested optimal layouter
+     * are added in its place, with the max width it would use.
+     */
+    private void collect(List<Candidate> candidates, int maxWidth, int maxHeight, List<Sprite> sprites) {
+        // layouters which cannot beat the best of our own layouters are aborted.
+        AtomicLong best = new AtomicLong(Long.MAX_VALUE);
 
         for (SpriteLayouter l : layouters) {
-            List<Sprite> copy = Sprite.copy(sprites);
+            l.setSpacing(getSpacing());
 
-            try {
-                int currentMapNumber = l.setSpacing(getSpacing())
-                .layout(maxWidth, maxHeight, copy);
+            if (isExpandable(l, maxWidth)) {
+                OptimalLayouter nested = (OptimalLayouter)l;
+                nested.collect(candidates, nested.optimalWidth(maxWidth), maxHeight, nested.prepare(sprites));
+            } else {
+                candidates.add(new Candidate(l, maxWidth, maxHeight, sprites,
+                    new LayoutBound(getBorder(), usePOTSize, best, sprites)));
+            }
+        }
+    }
+
+    /**
+     * Run layouters of all candidates, in worker threads if there are several threads.
+     */
+    private void evaluate(List<Candidate> candidates) {
+        if (threads <= 1 || candidates.size() <= 1) {
+            for (Candidate c : candidates) {
+                c.call();
+            }
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, candidates.size()));
+
+        try {
+            for (Future<Candidate> future : executor.invokeAll(candidates)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while doing layout.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                Dimension[] dimensions = Sprite.dimensions(copy, currentMapNumber);
+    /**
+     * Choose best of evaluated candidates in the order they are collected.
+     * @return best candidate or null if all layouters failed.
+     */
+    private Candidate select(Iterator<Candidate> results, int maxWidth, int maxHeight) {
+        Candidate optimal = null;
+        long minArea = 0;
+        float minFactor = 0f;
 
-                if (optimal == null) {
-                    optimal = l;
-                    optimizedSprites = copy;
-                    minArea = area(dimensions);
-                    minFactor = factor(dimensions, maxWidth, maxHeight);
-                    mapNumber = currentMapNumber;
+        for (SpriteLayouter l : layouters) {
+            Candidate c;
+
+            if (isExpandable(l, maxWidth)) {
+                OptimalLayouter nested = (OptimalLayouter)l;
+                c = nested.select(results, nested.optimalWidth(maxWidth), maxHeight);
 
+                if (c == null) {
                     continue;
                 }
 
-                // smallest area and min width/height factor layouter wins.
-                int curArea = area(dimensions);
-                float curFactor = factor(dimensions, maxWidth, maxHeight);
+                // score nested result as if nested layouter had done the layout.
+                c = new Candidate(l, c);
+            } else {
+                c = results.next();
+
+                if (c.aborted) {
+                    continue;
+                }
 
-                if (curArea < minArea || (curArea == minArea && curFactor < minFactor)) {
-                    optimal = l;
-                    minArea = curArea;
-                    minFactor = curFactor;
+                if (c.error != null) {
+                    System.err.println(c.error);
+                    continue;
                 }
-            } catch (RuntimeException re) {
-            	System.err.println(re);
+            }
+
+            Dimension[] dimensions = Sprite.dimensions(c.sprites, c.mapNumber);
+
+            // smallest area and min width/height factor layouter wins.
+            long curArea = area(dimensions);
+            float curFactor = factor(dimensions, maxWidth, maxHeight);
+
+            if (optimal == null || curArea < minArea || (curArea == minArea && curFactor < minFactor)) {
+                optimal = c;
+                minArea = curArea;
+                minFactor = curFactor;
             }
         }
 
-        sprites.clear();
-        sprites.addAll(optimizedSprites);
+        lastUsed = optimal == null ? null : optimal.layouter;
+        return optimal;
+    }
+
+    /**
+     * Return true if layouters of l can be evaluated by an outer optimal layouter.
+     */
+    private static boolean isExpandable(SpriteLayouter l, int maxWidth) {
+        if (!(l instanceof OptimalLayouter)) {
+            return false;
+        }
+
+        OptimalLayouter nested = (OptimalLayouter)l;
+        return !nested.layouters.isEmpty() && nested.optimalWidth(maxWidth) > 0;
+    }
+
+    /**
+     * Return sprites to be laid out by layouters of this, e.g. sorted in another order.
+     * Sprites are prepared once for all layouters. Given list and its sprites must not be changed.
+     */
+    protected List<Sprite> prepare(List<Sprite> sprites) {
+        return sprites;
+    }
+
+    /**
+     * Max width passed to layouters by {@link #layout(int, int, List)}.
+     */
+    private int optimalWidth(int maxWidth) {
+        if (usePOTSize) {
+            maxWidth = toLowerPOT(maxWidth);
+        }
 
-        lastUsed = optimal;
-        return mapNumber;
+        return maxWidth - getBorder() * 2;
     }
 
     /**
@@ -181,21 +316,27 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
      * @param dimensions
      * @return
      */
-    private int area(Dimension[] dimensions) {
-        int border = getBorder();
-        int areaValue = 0;
+    private long area(Dimension[] dimensions) {
+        long areaValue = 0;
         
         for (Dimension d : dimensions) {
-        	if (usePOTSize) {
-                areaValue += toUpperPOT(d.width + 2 * border) * toUpperPOT(d.height + 2 * border);
-            } else {
-                areaValue += (d.width + 2 * border) * (d.height + 2 * border);
-            }
+            areaValue += area(d.width, d.height, getBorder(), usePOTSize);
         }
 
         return areaValue;
     }
 
+    /**
+     * Calculate area of one sprite map with border.
+     */
+    static long area(int width, int height, int border, boolean usePOTSize) {
+        if (usePOTSize) {
+            return (long)toUpperPOT(width + 2 * border) * toUpperPOT(height + 2 * border);
+        }
+
+        return (long)(width + 2 * border) * (height + 2 * border);
+    }
+
     /**
      * Calculate optimization factor. The smaller the better.
      * @param dimensions
@@ -240,5 +381,52 @@ public class OptimalLayouter extends SpriteLayouter implements Iterable<SpriteLa
         
         return factorValue;
     }
-}
 
+    /**
+     * Layout of sprite copies by one layouter.
+     */
+    private static class Candidate implements Callable<Candidate> {
+        SpriteLayouter layouter;
+        int maxWidth;
+        int maxHeight;
+        List<Sprite> sprites;
+        LayoutBound bound;
+        int mapNumber;
+        boolean aborted;
+        RuntimeException error;
+
+        Candidate(SpriteLayouter layouter, int maxWidth, int maxHeight, List<Sprite> sprites, LayoutBound bound) {
+            this.layouter = layouter;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.sprites = sprites;
+            this.bound = bound;
+        }
+
+        Candidate(SpriteLayouter layouter, Candidate result) {
+            this.layouter = layouter;
+            this.sprites = result.sprites;
+            this.mapNumber = result.mapNumber;
+        }
+
+        public Candidate call() {
+            List<Sprite> copy = Sprite.copy(sprites);
+
+            layouter.setBound(bound);
+
+            try {
+                mapNumber = layouter.layout(maxWidth, maxHeight, copy);
+                bound.finish(copy, mapNumber);
+            } catch (LayoutAbortedException e) {
+                aborted = true;
+            } catch (RuntimeException re) {
+                error = re;
+            } finally {
+                layouter.setBound(null);
+            }
+
+            sprites = copy;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Optimal layouter which tries its layouters on sprites handled by a pre-handler and sorted by a sorter.
+ * Sprites are copied, handled and sorted once for all layouters, including the ones of nested layouters.
+ */
+public class OrderedLayouter extends OptimalLayouter {
+	private ObjectHandler<Sprite> spritePreHandler;
+	private Comparator<Sprite> spriteSorter;
+
+	/**
+	 * @param spritePreHandler handler for every sprite, e.g. Landscape. Can be null.
+	 * @param spriteSorter sorter of sprites. Can be null to keep order.
+	 */
+	public OrderedLayouter(ObjectHandler<Sprite> spritePreHandler, Comparator<Sprite> spriteSorter) {
+		this.spritePreHandler = spritePreHandler;
+		this.spriteSorter = spriteSorter;
+	}
+
+	protected List<Sprite> prepare(List<Sprite> sprites) {
+		List<Sprite> prepared = Sprite.copy(sprites);
+
+		if (spritePreHandler != null) {
+			for (Sprite s : prepared) {
+				spritePreHandler.handle(s);
+			}
+		}
+
+		if (spriteSorter != null) {
+			Collections.sort(prepared, spriteSorter);
+		}
+
+		return prepared;
+	}
+
+	private static String nullOrClass(Object o) {
+		return o == null ? "null" : o.getClass().getSimpleName();
+	}
+
+	public String toString() {
+		return "Ordered(" + nullOrClass(spritePreHandler) + "," + nullOrClass(spriteSorter) + "," + super.toString() + ")";
+	}
+}
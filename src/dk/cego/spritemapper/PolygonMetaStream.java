@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Write meta data in cocos2d-x plist format 3 with polygon meshes.
+ * 
+ * <code>vertices</code> are in untrimmed sprite coordinates, i.e. <code>spriteSourceSize</code> space,
+ * and <code>verticesUV</code> are pixel positions in sprite map. Sprites without polygon are written as 2 triangles covering color rect.
+ */
+public class PolygonMetaStream implements SpriteMapperMetaStream {
+	public void write(String filename, List<Sprite> sprites, int mapNumber, Dimension size, OutputStream out) throws IOException {
+		Charset c = Charset.forName("UTF-8");
+		OutputStreamWriter o = new OutputStreamWriter(out, c);
+		o.write("<?xml version=\"1.0\" encoding=\"" + c + "\"?>\n");
+		o.write("<!DOCTYPE plist PUBLIC \"-//Apple Computer//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n");
+		o.write("<plist version=\"1.0\">\n");
+		o.write("    <dict>\n");
+		o.write("        <key>frames</key>\n");
+		o.write("        <dict>\n");
+		
+		for (Sprite s : sprites) {
+			if (s.mapNumber != mapNumber) {
+				continue;
+			}
+			
+			Rectangle cr = s.colorRect;
+			float offsetX = cr.x - (s.originalDimension.width - cr.w) / 2.0f;
+			float offsetY = (s.originalDimension.height - cr.h) / 2.0f - cr.y;
+			SpritePolygon polygon = s.polygon;
+			
+			if (polygon == null) {
+				polygon = cr.w == 0 || cr.h == 0 ? new SpritePolygon(new int[0]) : SpritePolygon.rectangle(cr.w, cr.h);
+			}
+			
+			StringBuilder vertices = new StringBuilder();
+			StringBuilder verticesUV = new StringBuilder();
+			StringBuilder triangles = new StringBuilder();
+			
+			for (int i = 0; i < polygon.vertices.length; i += 2) {
+				int x = polygon.vertices[i];
+				int y = polygon.vertices[i + 1];
+				
+				// sprite is rotated 90 degrees clockwise in sprite map.
+				int u = s.rotated ? s.x + cr.h - y : s.x + x;
+				int v = s.rotated ? s.y + x : s.y + y;
+				
+				// polygon is traced in color rect. cocos2d-x reads vertices in spriteSourceSize space.
+				separate(vertices).append(x + cr.x).append(' ').append(y + cr.y);
+				separate(verticesUV).append(u).append(' ').append(v);
+			}
+			
+			for (int i : polygon.triangles) {
+				separate(triangles).append(i);
+			}
+			
+			o.write("            <key>" + s.name.replace('\\', '/') + "</key>\n");
+			o.write("            <dict>\n");
+			o.write("                <key>aliases</key>\n");
+			o.write("                <array/>\n");
+			o.write("                <key>spriteOffset</key>\n");
+			o.write("                <string>{" + offsetX + "," + offsetY + "}</string>\n");
+			o.write("                <key>spriteSize</key>\n");
+			o.write("                <string>{" + cr.w + "," + cr.h + "}</string>\n");
+			o.write("                <key>spriteSourceSize</key>\n");
+			o.write("                <string>{" + s.originalDimension.width + "," + s.originalDimension.height + "}</string>\n");
+			o.write("                <key>textureRect</key>\n");
+			o.write("                <string>{{" + s.x + "," + s.y + "},{" + cr.w + "," + cr.h + "}}</string>\n");
+			o.write("                <key>textureRotated</key>\n");
+			o.write("                <" + s.rotated + "/>\n");
+			o.write("                <key>triangles</key>\n");
+			o.write("                <string>" + triangles + "</string>\n");
+			o.write("                <key>vertices</key>\n");
+			o.write("                <string>" + vertices + "</string>\n");
+			o.write("                <key>verticesUV</key>\n");
+			o.write("                <string>" + verticesUV + "</string>\n");
+			o.write("            </dict>\n");
+		}
+		
+		o.write("        </dict>\n");
+		o.write("        <key>metadata</key>\n");
+		o.write("        <dict>\n");
+		o.write("            <key>format</key>\n");
+		o.write("            <integer>3</integer>\n");
+		o.write("            <key>pixelFormat</key>\n");
+		o.write("            <string>RGBA8888</string>\n");
+		o.write("            <key>premultiplyAlpha</key>\n");
+		o.write("            <false/>\n");
+		o.write("            <key>realTextureFileName</key>\n");
+		o.write("            <string>" + filename + "</string>\n");
+		o.write("            <key>size</key>\n");
+		o.write("            <string>{" + size.width + "," + size.height + "}</string>\n");
+		o.write("            <key>textureFileName</key>\n");
+		o.write("            <string>" + filename + "</string>\n");
+		o.write("        </dict>\n");
+		o.write("    </dict>\n");
+		o.write("</plist>\n");
+		o.flush();
+	}
+	
+	private static StringBuilder separate(StringBuilder builder) {
+		if (builder.length() > 0) {
+			builder.append(' ');
+		}
+		
+		return builder;
+	}
+}
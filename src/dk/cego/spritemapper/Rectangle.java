@@ -47,6 +47,13 @@ public class Rectangle {
         return w * h;
     }
 
+    /**
+     * Return true if this has no positive width or height.
+     */
+    public boolean isEmpty() {
+        return w <= 0 || h <= 0;
+    }
+
     /**
      * Return true if this fits inside 'other'.
      */
@@ -19,6 +19,7 @@ package dk.cego.spritemapper;
 
 import java.util.List;
 import java.util.LinkedList;
+import java.io.IOException;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 
@@ -26,14 +27,33 @@ public class Sprite extends Rectangle {
     public String name;
     public int mapNumber = 0;
     public BufferedImage image;
+    public SpriteSource source;
     public boolean rotated;
     public Rectangle colorRect;
     public Dimension originalDimension;
 
+    /**
+     * Polygon covering pixels in color rect. It's null unless polygon trimming is enabled.
+     */
+    public SpritePolygon polygon;
+
+    /**
+     * Sprites with identical pixels. They are not packed and share frame of this sprite.
+     */
+    public List<Sprite> aliases;
+
     public Sprite(String name, BufferedImage image) {
         this(name, image, 0, 0, image.getWidth(), image.getHeight(), false);
     }
 
+    /**
+     * Create a sprite without pixels. Image will be decoded from source when it's needed.
+     */
+    public Sprite(String name, SpriteSource source, int w, int h) {
+        this(name, null, 0, 0, w, h, false);
+        this.source = source;
+    }
+
     public Sprite(String name, BufferedImage image, int x, int y, int w, int h, boolean rotated) {
         this(name, image, x, y, w, h, 0, 0, w, h, w, h, rotated);
     }
@@ -47,6 +67,41 @@ public class Sprite extends Rectangle {
         this.originalDimension = new Dimension(originalW, originalH);
     }
 
+    /**
+     * Get sprite image. If pixels are not in memory, image is decoded from source
+     * and cropped to color rect.
+     */
+    public BufferedImage getImage() throws IOException {
+        if (image == null && source != null) {
+            image = source.read(colorRect);
+        }
+
+        return image;
+    }
+
+    /**
+     * Drop pixels if they can be decoded from source again.
+     */
+    public void releaseImage() {
+        if (source != null) {
+            image = null;
+        }
+    }
+
+    /**
+     * Drop pixels of this sprite and its aliases even if they cannot be decoded again.
+     * Sprite without source cannot be drawn afterwards.
+     */
+    public void discardImage() {
+        image = null;
+
+        if (aliases != null) {
+            for (Sprite alias : aliases) {
+                alias.image = null;
+            }
+        }
+    }
+
     public Sprite rotate() {
         int tmp = w;
         w = h;
@@ -57,11 +112,15 @@ public class Sprite extends Rectangle {
     }
 
     public final static Sprite copy(Sprite toCopy) {
-        return new Sprite(toCopy.name, toCopy.image, 
+        Sprite s = new Sprite(toCopy.name, toCopy.image, 
                             toCopy.x, toCopy.y, toCopy.w, toCopy.h,
                             toCopy.colorRect.x, toCopy.colorRect.y, toCopy.colorRect.w, toCopy.colorRect.h, 
                             toCopy.originalDimension.width, toCopy.originalDimension.height,
                             toCopy.rotated);
+        s.source = toCopy.source;
+        s.polygon = toCopy.polygon;
+        s.aliases = toCopy.aliases;
+        return s;
     }
 
     public final static List<Sprite> copy(List<Sprite> toCopy) {
@@ -72,6 +131,43 @@ public class Sprite extends Rectangle {
         return c;
     }
 
+    /**
+     * Move aliases to the frame of this sprite.
+     */
+    public void placeAliases() {
+        if (aliases == null) {
+            return;
+        }
+
+        for (Sprite alias : aliases) {
+            alias.x = x;
+            alias.y = y;
+            alias.w = w;
+            alias.h = h;
+            alias.rotated = rotated;
+            alias.mapNumber = mapNumber;
+        }
+    }
+
+    /**
+     * List sprites and their aliases. Every sprite is followed by its aliases.
+     * @param sprites
+     * @return
+     */
+    public final static List<Sprite> withAliases(List<Sprite> sprites) {
+        LinkedList<Sprite> all = new LinkedList<Sprite>();
+
+        for (Sprite s : sprites) {
+            all.add(s);
+
+            if (s.aliases != null) {
+                all.addAll(s.aliases);
+            }
+        }
+
+        return all;
+    }
+
     /**
      * Calculate dimension of sprites.
      * @param sprites
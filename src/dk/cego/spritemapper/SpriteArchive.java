@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Zip or jar archive containing image files.
+ * 
+ * Archive is kept open until {@link #close()} is called, so that entries can be read again when
+ * sprites are decoded lazily. It's safe to read entries from several threads.
+ */
+public class SpriteArchive {
+	private static final String[] EXTENSIONS = {".zip", ".jar"};
+	
+	private File file;
+	private ZipFile zipFile;
+	
+	public SpriteArchive(File file) throws IOException {
+		this.file = file;
+		this.zipFile = new ZipFile(file);
+	}
+	
+	/**
+	 * Test whether path looks like an archive by its extension.
+	 * @param path
+	 * @return
+	 */
+	public static boolean isArchive(String path) {
+		String lower = path.toLowerCase();
+		
+		for (String ext : EXTENSIONS) {
+			if (lower.endsWith(ext)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Find end of archive extension in a path like "assets.zip/sprites/**".
+	 * @param path
+	 * @return index after archive extension or -1 if there is no archive in path.
+	 */
+	public static int archiveExtensionEnd(String path) {
+		String lower = path.toLowerCase();
+		
+		for (String ext : EXTENSIONS) {
+			int index = lower.indexOf(ext);
+			
+			while (index >= 0) {
+				int end = index + ext.length();
+				
+				if (end == path.length() || path.charAt(end) == '/' || path.charAt(end) == File.separatorChar) {
+					return end;
+				}
+				
+				index = lower.indexOf(ext, end);
+			}
+		}
+		
+		return -1;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Get names of all file entries sorted by name.
+	 * @return
+	 */
+	public List<String> getEntryNames() {
+		List<String> names = new ArrayList<String>();
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		
+		while (entries.hasMoreElements()) {
+			ZipEntry e = entries.nextElement();
+			
+			if (!e.isDirectory()) {
+				names.add(e.getName());
+			}
+		}
+		
+		// entry order in archive is arbitrary. sort it to generate stable result.
+		Collections.sort(names);
+		return names;
+	}
+	
+	public InputStream openEntry(String name) throws IOException {
+		ZipEntry e = zipFile.getEntry(name);
+		
+		if (e == null) {
+			throw new IOException("Entry is not found in archive. Entry: " + name + ", Archive: " + file.getPath());
+		}
+		
+		return zipFile.getInputStream(e);
+	}
+	
+	/**
+	 * Read whole entry into memory.
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] readEntry(String name) throws IOException {
+		ZipEntry e = zipFile.getEntry(name);
+		
+		if (e == null) {
+			throw new IOException("Entry is not found in archive. Entry: " + name + ", Archive: " + file.getPath());
+		}
+		
+		long size = e.getSize();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 && size < Integer.MAX_VALUE ? (int)size : 8192);
+		InputStream in = zipFile.getInputStream(e);
+		
+		try {
+			byte[] buf = new byte[8192];
+			int n;
+			
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		
+		return out.toByteArray();
+	}
+	
+	public void close() throws IOException {
+		zipFile.close();
+	}
+	
+	public String toString() {
+		return "SpriteArchive(" + file.getPath() + ")";
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.StreamFilter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An existing sprite map page and its plist written by {@link Zwoptex2MetaStream}.
+ * 
+ * Frames in the page are recovered as trimmed sprites, so that they can be packed again
+ * without original image files. Page is decoded once when the first frame is read.
+ */
+public class SpriteAtlas {
+	private static final Pattern INTEGER_PATTERN = Pattern.compile("-?\\d+");
+	
+	private File plist;
+	private File texture;
+	private List<Sprite> sprites = new ArrayList<Sprite>();
+	private BufferedImage page;
+	
+	private SpriteAtlas(File plist) {
+		this.plist = plist;
+	}
+	
+	/**
+	 * Test whether path looks like an atlas plist by its extension.
+	 * @param path
+	 * @return
+	 */
+	public static boolean isAtlas(String path) {
+		return path.toLowerCase().endsWith(".plist");
+	}
+	
+	/**
+	 * Load atlas from plist.
+	 * Texture file is looked up in plist dir first, then base dir, as plist may only keep texture file name.
+	 * @param plist
+	 * @param baseDir
+	 * @return
+	 * @throws IOException
+	 */
+	public static SpriteAtlas load(File plist, File baseDir) throws IOException {
+		SpriteAtlas atlas = new SpriteAtlas(plist);
+		Map<String, Object> root = parsePlist(plist);
+		Map<String, Object> metadata = getDict(root, "metadata", plist);
+		Map<String, Object> frames = getDict(root, "frames", plist);
+		
+		if (!"2".equals(metadata.get("format"))) {
+			throw new IOException("Unsupported plist format. Only Zwoptex2 format is supported. File: " + plist.getPath());
+		}
+		
+		Object textureFileName = metadata.get("textureFileName");
+		
+		if (!(textureFileName instanceof String)) {
+			throw new IOException("Texture file name is not found in plist. File: " + plist.getPath());
+		}
+		
+		atlas.texture = findTexture((String)textureFileName, plist, baseDir);
+		
+		for (Map.Entry<String, Object> entry : frames.entrySet()) {
+			if (!(entry.getValue() instanceof Map)) {
+				throw new IOException("Invalid frame in plist. Frame: " + entry.getKey() + ", File: " + plist.getPath());
+			}
+			
+			@SuppressWarnings("unchecked")
+			Map<String, Object> frame = (Map<String, Object>)entry.getValue();
+			atlas.sprites.add(atlas.createSprite(entry.getKey(), frame));
+		}
+		
+		return atlas;
+	}
+	
+	public File getPlist() {
+		return plist;
+	}
+	
+	public File getTexture() {
+		return texture;
+	}
+	
+	/**
+	 * Get all frames as trimmed sprites in plist order. Pixels are not decoded.
+	 * @return
+	 */
+	public List<Sprite> getSprites() {
+		return sprites;
+	}
+	
+	/**
+	 * Get decoded page image.
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized BufferedImage getPage() throws IOException {
+		if (page == null) {
+			page = new FileSpriteSource(texture).read();
+		}
+		
+		return page;
+	}
+	
+	public String toString() {
+		return "SpriteAtlas(" + plist.getPath() + ")";
+	}
+	
+	private Sprite createSprite(String name, Map<String, Object> frame) throws IOException {
+		int[] rect = getIntegers(frame, "frame", 4, name);
+		int[] colorRect = getIntegers(frame, "sourceColorRect", 4, name);
+		int[] sourceSize = getIntegers(frame, "sourceSize", 2, name);
+		boolean rotated = Boolean.TRUE.equals(frame.get("rotated"));
+		
+		// frame size is the size before rotation.
+		if (rect[2] != colorRect[2] || rect[3] != colorRect[3]) {
+			throw new IOException("Frame size doesn't match source color rect. Frame: " + name + ", File: " + plist.getPath());
+		}
+		
+		AtlasFrameSpriteSource source = new AtlasFrameSpriteSource(this,
+			new Rectangle(rect[0], rect[1], rect[2], rect[3]), rotated,
+			new Rectangle(colorRect[0], colorRect[1], colorRect[2], colorRect[3]),
+			sourceSize[0], sourceSize[1]);
+		
+		Sprite s = new Sprite(name, null, 0, 0, colorRect[2], colorRect[3],
+			colorRect[0], colorRect[1], colorRect[2], colorRect[3], sourceSize[0], sourceSize[1], false);
+		s.source = source;
+		return s;
+	}
+	
+	private int[] getIntegers(Map<String, Object> frame, String key, int count, String name) throws IOException {
+		Object value = frame.get(key);
+		
+		if (value instanceof String) {
+			int[] result = new int[count];
+			Matcher m = INTEGER_PATTERN.matcher((String)value);
+			int i = 0;
+			
+			for (; i < count && m.find(); i++) {
+				result[i] = Integer.parseInt(m.group());
+			}
+			
+			if (i == count) {
+				return result;
+			}
+		}
+		
+		throw new IOException("Invalid '" + key + "' in plist. Frame: " + name + ", File: " + plist.getPath());
+	}
+	
+	private static File findTexture(String name, File plist, File baseDir) throws IOException {
+		File texture = new File(name);
+		
+		if (texture.isAbsolute()) {
+			if (texture.isFile()) {
+				return texture;
+			}
+		} else {
+			File dir = plist.getAbsoluteFile().getParentFile();
+			
+			if (new File(dir, name).isFile()) {
+				return new File(dir, name);
+			}
+			
+			if (new File(dir, texture.getName()).isFile()) {
+				return new File(dir, texture.getName());
+			}
+			
+			if (new File(baseDir, name).isFile()) {
+				return new File(baseDir, name);
+			}
+		}
+		
+		throw new IOException("Texture file is not found. Texture: " + name + ", File: " + plist.getPath());
+	}
+	
+	private static Map<String, Object> getDict(Map<String, Object> dict, String key, File plist) throws IOException {
+		Object value = dict.get(key);
+		
+		if (!(value instanceof Map)) {
+			throw new IOException("Invalid plist. Expect <dict> for key '" + key + "'. File: " + plist.getPath());
+		}
+		
+		@SuppressWarnings("unchecked")
+		Map<String, Object> result = (Map<String, Object>)value;
+		return result;
+	}
+	
+	/**
+	 * Parse plist to maps, lists, strings and booleans. Values of other types are kept as strings.
+	 * @param plist
+	 * @return root dict.
+	 * @throws IOException
+	 */
+	private static Map<String, Object> parsePlist(File plist) throws IOException {
+		InputStream in = new FileInputStream(plist);
+		
+		try {
+			// plist has a DOCTYPE pointing to apple.com. never load it.
+			XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+			inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			XMLStreamReader reader = inputFactory.createFilteredReader(inputFactory.createXMLStreamReader(in), new StreamFilter() {
+				@Override
+				public boolean accept(XMLStreamReader reader) {
+					return reader.isStartElement() || reader.isEndElement();
+				}
+			});
+			
+			reader.require(XMLStreamReader.START_ELEMENT, null, "plist");
+			reader.nextTag();
+			Object root = parseValue(reader);
+			
+			if (!(root instanceof Map)) {
+				throw new IOException("Invalid plist. Root element must be <dict>. File: " + plist.getPath());
+			}
+			
+			@SuppressWarnings("unchecked")
+			Map<String, Object> result = (Map<String, Object>)root;
+			return result;
+		} catch (XMLStreamException e) {
+			throw new IOException("Invalid plist. File: " + plist.getPath() + ". " + e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Parse a value. Reader must be at start element of the value and will be at its end element.
+	 */
+	private static Object parseValue(XMLStreamReader reader) throws XMLStreamException {
+		String tagName = reader.getLocalName();
+		
+		if (tagName.equals("dict")) {
+			Map<String, Object> dict = new LinkedHashMap<String, Object>();
+			
+			while (reader.nextTag() == XMLStreamReader.START_ELEMENT) {
+				reader.require(XMLStreamReader.START_ELEMENT, null, "key");
+				String key = reader.getElementText();
+				reader.nextTag();
+				dict.put(key, parseValue(reader));
+			}
+			
+			return dict;
+		}
+		
+		if (tagName.equals("array")) {
+			List<Object> array = new ArrayList<Object>();
+			
+			while (reader.nextTag() == XMLStreamReader.START_ELEMENT) {
+				array.add(parseValue(reader));
+			}
+			
+			return array;
+		}
+		
+		if (tagName.equals("true") || tagName.equals("false")) {
+			reader.nextTag();
+			return Boolean.valueOf(tagName.equals("true"));
+		}
+		
+		return reader.getElementText();
+	}
+}
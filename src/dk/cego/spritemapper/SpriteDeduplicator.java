@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import dk.cego.spritemapper.util.ArgbImages;
+import dk.cego.spritemapper.util.PixelKernels;
+
+/**
+ * Find sprites with identical pixels after trimming and keep only one of them.
+ * 
+ * Duplicates become aliases of the first sprite with the same pixels, so that they share its frame in sprite map.
+ * Only sprites sharing size with others are hashed. Pixels are compared one by one if hashes match.
+ * Pixels of lazy sprites are decoded for comparison and released again.
+ */
+public class SpriteDeduplicator {
+	/**
+	 * Remove duplicated sprites.
+	 * @param sprites
+	 * @return sprites without duplicates in the same order.
+	 * @throws IOException
+	 */
+	public List<Sprite> deduplicate(List<Sprite> sprites) throws IOException {
+		Map<Long, Integer> sizes = new HashMap<Long, Integer>();
+		
+		for (Sprite s : sprites) {
+			Long size = size(s);
+			Integer count = sizes.get(size);
+			sizes.put(size, count == null ? 1 : count + 1);
+		}
+		
+		Map<Long, List<Sprite>> uniques = new HashMap<Long, List<Sprite>>();
+		List<Sprite> result = new LinkedList<Sprite>();
+		
+		for (Sprite s : sprites) {
+			// nothing to compare with.
+			if (s.colorRect.w == 0 || s.colorRect.h == 0 || sizes.get(size(s)) < 2) {
+				result.add(s);
+				continue;
+			}
+			
+			Long hash = hash(s);
+			List<Sprite> candidates = uniques.get(hash);
+			Sprite original = null;
+			
+			if (candidates == null) {
+				candidates = new ArrayList<Sprite>(1);
+				uniques.put(hash, candidates);
+			}
+			
+			for (Sprite c : candidates) {
+				if (equals(c, s)) {
+					original = c;
+					break;
+				}
+			}
+			
+			if (original == null) {
+				candidates.add(s);
+				result.add(s);
+				continue;
+			}
+			
+			if (original.aliases == null) {
+				original.aliases = new LinkedList<Sprite>();
+			}
+			
+			original.aliases.add(s);
+		}
+		
+		return result;
+	}
+	
+	private static Long size(Sprite s) {
+		return ((long)s.colorRect.w << 32) | s.colorRect.h;
+	}
+	
+	private static long hash(Sprite s) throws IOException {
+		boolean loaded = s.image != null;
+		BufferedImage image = ArgbImages.normalize(s.getImage());
+		long hash = PixelKernels.hash(ArgbImages.data(image), ArgbImages.offset(image), ArgbImages.scanlineStride(image),
+			image.getWidth(), image.getHeight());
+		
+		if (!loaded) {
+			s.releaseImage();
+		}
+		
+		return hash;
+	}
+	
+	private static boolean equals(Sprite a, Sprite b) throws IOException {
+		if (a.colorRect.w != b.colorRect.w || a.colorRect.h != b.colorRect.h) {
+			return false;
+		}
+		
+		boolean aLoaded = a.image != null;
+		boolean bLoaded = b.image != null;
+		BufferedImage imageA = ArgbImages.normalize(a.getImage());
+		BufferedImage imageB = ArgbImages.normalize(b.getImage());
+		boolean equal = PixelKernels.equals(ArgbImages.data(imageA), ArgbImages.offset(imageA), ArgbImages.scanlineStride(imageA),
+			ArgbImages.data(imageB), ArgbImages.offset(imageB), ArgbImages.scanlineStride(imageB),
+			imageA.getWidth(), imageA.getHeight());
+		
+		if (!aLoaded) {
+			a.releaseImage();
+		}
+		
+		if (!bLoaded) {
+			b.releaseImage();
+		}
+		
+		return equal;
+	}
+}
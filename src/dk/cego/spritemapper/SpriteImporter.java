@@ -17,15 +17,31 @@
  */
 package dk.cego.spritemapper;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import dk.cego.spritemapper.cache.SpriteCache;
 
 public class SpriteImporter {
+    private final static int PIPELINE_WINDOW_PER_THREAD = 4;
+
     private ObjectHandler<File> fileHandler;
     private ObjectHandler<Sprite> spriteHandler;
+    private ObjectHandler<Sprite> trimmer = null;
+    private int threads = 1;
+    private boolean lazyDecode = false;
+    private SpriteCache cache = null;
 
     public SpriteImporter() {
         fileHandler = new ObjectHandler<File>() {
@@ -47,55 +63,428 @@ public class SpriteImporter {
         return this;
     }
 
+    /**
+     * Set handler to trim sprites right after they are decoded, e.g. a {@link SpriteTrimmer}.
+     * Trimmer is called in worker threads, so it must be thread-safe. Sprite handler is called after trimmer.
+     * With lazy decode, pixels are decoded only for trimming and released at once.
+     * @param trimmer
+     */
+    public SpriteImporter setTrimmer(ObjectHandler<Sprite> trimmer) {
+        this.trimmer = trimmer;
+        return this;
+    }
+
+    /**
+     * Set number of threads used to decode image files.
+     * Sprites are always returned in the same order as input files. File handler and sprite handler
+     * are called on caller thread in input order, so they don't need to be thread-safe.
+     * 
+     * With more than 1 thread, files are imported in a pipeline. One thread reads files, decoding and
+     * trimming threads process them and caller thread calls sprite handler. Stages are connected by
+     * bounded queues, so only a few sprites are being processed at any time.
+     * @param threads number of decoding threads. 1 or less means decoding on caller thread.
+     */
+    public SpriteImporter setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Set whether to decode pixels on demand.
+     * If it's true, only image headers are read on import and pixels are decoded when sprite is drawn.
+     * @param lazyDecode
+     */
+    public SpriteImporter setLazyDecode(boolean lazyDecode) {
+        this.lazyDecode = lazyDecode;
+        return this;
+    }
+
+    /**
+     * Set cache to look up dimensions of unchanged images.
+     * @param cache
+     */
+    public SpriteImporter setCache(SpriteCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
     public List<Sprite> importSprites(File base, Iterable<File> files) throws IOException {
-        List<Sprite> result = new LinkedList<Sprite>();
+        List<File> fileList = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
         String baseDir = base.getCanonicalPath();
-        String separator = "\\" + File.separator;
-        String[] baseDirParts = null;
 
         for (File f : files) {
-            String filePath = f.getCanonicalPath();
-            String path;
-
-            // file path likely starts with base dir.
-            if (filePath.startsWith(baseDir)) {
-                path = filePath.substring(baseDir.length() + 1);
-            } else {
-                if (baseDirParts == null) {
-                    baseDirParts = baseDir.split(separator);
+            fileList.add(f);
+            names.add(relativePath(baseDir, f));
+        }
+
+        return importSources(names, fileList, null);
+    }
+
+    /**
+     * Import entries of an archive. Sprite names are entry names, which are the same as
+     * names of files extracted to base dir. File handler is not called for entries.
+     * @param archive
+     * @param entries
+     * @return
+     * @throws IOException
+     */
+    public List<Sprite> importSprites(SpriteArchive archive, Iterable<String> entries) throws IOException {
+        List<SpriteSource> sources = new ArrayList<SpriteSource>();
+        List<String> names = new ArrayList<String>();
+
+        for (String entry : entries) {
+            sources.add(new ZipEntrySpriteSource(archive, entry));
+            names.add(entry);
+        }
+
+        return importSources(names, null, sources);
+    }
+
+    /**
+     * Import frames of an existing sprite map. Frames are cut out of sprite map page unless decoding lazily.
+     * Frames may be stored untrimmed. Trimmer scans them in original size again if it's set.
+     * @param atlas
+     * @return
+     * @throws IOException
+     */
+    public List<Sprite> importSprites(SpriteAtlas atlas) throws IOException {
+        List<Sprite> sprites = new ArrayList<Sprite>();
+
+        for (Sprite s : atlas.getSprites()) {
+            if (trimmer != null) {
+                s.image = s.source.read();
+                s.colorRect = new Rectangle(0, 0, s.originalDimension.width, s.originalDimension.height);
+                s.w = s.colorRect.w;
+                s.h = s.colorRect.h;
+                trimmer.handle(s);
+            }
+
+            if (!lazyDecode) {
+                s.getImage();
+            }
+
+            spriteHandler.handle(s);
+            sprites.add(s);
+        }
+
+        return sprites;
+    }
+
+    private String relativePath(String baseDir, File f) throws IOException {
+        String separator = "\\" + File.separator;
+        String filePath = f.getCanonicalPath();
+
+        // file path likely starts with base dir.
+        if (filePath.startsWith(baseDir)) {
+            return filePath.substring(baseDir.length() + 1);
+        }
+
+        String[] baseDirParts = baseDir.split(separator);
+        String[] parts = filePath.split(separator);
+        int start = 0;
+
+        for (; start < parts.length && start < baseDirParts.length; start++) {
+            if (parts[start] != baseDirParts[start]) {
+                break;
+            }
+        }
+
+        // i don't know why java doesn't have built-in array join and slice.
+        if (start >= parts.length) {
+            return "";
+        }
+
+        String path = parts[start];
+
+        for (int i = start + 1; i < parts.length; i++) {
+            path += File.separator + parts[i];
+        }
+
+        return path;
+    }
+
+    /**
+     * Import sprites from either files or sources.
+     */
+    private List<Sprite> importSources(List<String> names, List<File> files, List<SpriteSource> sources) throws IOException {
+        int size = names.size();
+
+        if (threads <= 1 || size <= 1) {
+            List<Sprite> result = new LinkedList<Sprite>();
+
+            for (int i = 0; i < size; i++) {
+                Item item = new Item(i, names.get(i), files == null ? null : files.get(i), sources == null ? null : sources.get(i));
+
+                if (item.file != null) {
+                    fileHandler.handle(item.file);
                 }
 
-                String[] parts = filePath.split(separator);
-                int start = 0;
+                read(item);
+                decode(item);
+                trim(item);
+                spriteHandler.handle(item.sprite);
+                result.add(item.sprite);
+            }
 
-                for (; start < parts.length && start < baseDirParts.length; start++) {
-                    if (parts[start] != baseDirParts[start]) {
-                        break;
-                    }
+            return result;
+        }
+
+        return importPipelined(names, files, sources);
+    }
+
+    public Sprite importSprite(File file, String name) throws IOException {
+        fileHandler.handle(file);
+        Item item = new Item(0, name, file, null);
+        read(item);
+        decode(item);
+        trim(item);
+        spriteHandler.handle(item.sprite);
+        return item.sprite;
+    }
+
+    private SpriteSource sourceOf(File file) throws IOException {
+        return cache == null ? new FileSpriteSource(file) : cache.getSource(file);
+    }
+
+    /**
+     * Pixels are not needed on import if they are decoded lazily and color rect is known.
+     */
+    private boolean needsPixels(SpriteSource source) {
+        return !lazyDecode || (trimmer != null && (cache == null || cache.getColorRect(source) == null));
+    }
+
+    /**
+     * Read stage. Find out sprite source and read encoded data if possible.
+     * Cache lookup may hash file content, so it's done here as well.
+     */
+    private void read(Item item) throws IOException {
+        if (item.source == null) {
+            item.source = sourceOf(item.file);
+        }
+
+        if (needsPixels(item.source) && item.source instanceof EncodedSpriteSource) {
+            item.encoded = ((EncodedSpriteSource)item.source).readEncoded();
+        }
+    }
+
+    /**
+     * Decode stage. Create sprite with decoded pixels or with image dimension only.
+     */
+    private void decode(Item item) throws IOException {
+        SpriteSource source = item.source;
+
+        if (!needsPixels(source)) {
+            Dimension d = source.probe();
+            item.sprite = new Sprite(item.name, source, d.width, d.height);
+            return;
+        }
+
+        BufferedImage image;
+
+        if (item.encoded != null) {
+            image = ((EncodedSpriteSource)source).decode(item.encoded);
+            item.encoded = null;
+        } else {
+            image = source.read();
+        }
+
+        if (lazyDecode) {
+            // trimmer will release pixels.
+            item.sprite = new Sprite(item.name, source, image.getWidth(), image.getHeight());
+            item.sprite.image = image;
+        } else {
+            item.sprite = new Sprite(item.name, image);
+        }
+    }
+
+    private void trim(Item item) {
+        if (trimmer instanceof SpriteTrimmer) {
+            // eagerly decoded sprites have no source. color rect is still cached by item source.
+            ((SpriteTrimmer)trimmer).handle(item.sprite, item.source);
+        } else if (trimmer != null) {
+            trimmer.handle(item.sprite);
+        }
+    }
+
+    private List<Sprite> importPipelined(List<String> names, List<File> files, List<SpriteSource> sources) throws IOException {
+        int size = names.size();
+        int window = threads * PIPELINE_WINDOW_PER_THREAD;
+        List<Sprite> result = new LinkedList<Sprite>();
+
+        // every item holds a permit until it leaves pipeline. it bounds number of images in memory.
+        Semaphore permits = new Semaphore(window);
+        BlockingQueue<Item> readQueue = new ArrayBlockingQueue<Item>(window);
+        BlockingQueue<Item> decodedQueue = new ArrayBlockingQueue<Item>(window);
+        BlockingQueue<Item> doneQueue = new ArrayBlockingQueue<Item>(window);
+        ExecutorService executor = Executors.newFixedThreadPool(1 + threads * (trimmer == null ? 1 : 2));
+
+        try {
+            List<Item> items = new ArrayList<Item>(size);
+
+            for (int i = 0; i < size; i++) {
+                Item item = new Item(i, names.get(i), files == null ? null : files.get(i), sources == null ? null : sources.get(i));
+
+                if (item.file != null) {
+                    fileHandler.handle(item.file);
                 }
 
-                // i don't know why java doesn't have built-in array join and slice.
-                if (start < parts.length) {
-                    path = parts[start];
+                items.add(item);
+            }
 
-                    for (int i = start + 1; i < parts.length; i++) {
-                        path += File.separator + parts[i];
-                    }
-                } else {
-                    path = "";
+            executor.execute(new ReadStage(items, permits, readQueue));
+
+            for (int i = 0; i < threads; i++) {
+                executor.execute(new Stage(Stage.DECODE, readQueue, trimmer == null ? doneQueue : decodedQueue));
+
+                if (trimmer != null) {
+                    executor.execute(new Stage(Stage.TRIM, decodedQueue, doneQueue));
                 }
             }
 
-            result.add(importSprite(f, path));
+            // items are done out of order. pass them to sprite handler in input order.
+            Item[] done = new Item[size];
+            int next = 0;
+
+            while (next < size) {
+                Item item = doneQueue.take();
+                done[item.index] = item;
+
+                for (; next < size && done[next] != null; next++) {
+                    item = done[next];
+                    done[next] = null;
+
+                    if (item.error != null) {
+                        rethrow(item.error);
+                    }
+
+                    spriteHandler.handle(item.sprite);
+                    result.add(item.sprite);
+                    permits.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing sprites.");
+        } finally {
+            executor.shutdownNow();
         }
 
         return result;
     }
 
-    public Sprite importSprite(File file, String name) throws IOException {
-        fileHandler.handle(file);
-        Sprite s = new Sprite(name, ImageIO.read(file));
-        spriteHandler.handle(s);
-        return s;
+    private static void rethrow(Throwable error) throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException)error;
+        }
+
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException)error;
+        }
+
+        if (error instanceof Error) {
+            throw (Error)error;
+        }
+
+        throw new RuntimeException(error);
+    }
+
+    /**
+     * A file or source flowing through import pipeline.
+     */
+    private static class Item {
+        int index;
+        String name;
+        File file;
+        SpriteSource source;
+        byte[] encoded;
+        Sprite sprite;
+        Throwable error;
+
+        Item(int index, String name, File file, SpriteSource source) {
+            this.index = index;
+            this.name = name;
+            this.file = file;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Read all items in input order. Stop at the first error.
+     */
+    private class ReadStage implements Runnable {
+        private List<Item> items;
+        private Semaphore permits;
+        private BlockingQueue<Item> out;
+
+        public ReadStage(List<Item> items, Semaphore permits, BlockingQueue<Item> out) {
+            this.items = items;
+            this.permits = permits;
+            this.out = out;
+        }
+
+        public void run() {
+            try {
+                for (Item item : items) {
+                    permits.acquire();
+
+                    try {
+                        read(item);
+                    } catch (Throwable e) {
+                        item.error = e;
+                    }
+
+                    out.put(item);
+
+                    if (item.error != null) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // importing is done or aborted.
+            }
+        }
+    }
+
+    /**
+     * Decode or trim items until interrupted. Failed items are passed through so that caller can see the error.
+     */
+    private class Stage implements Runnable {
+        static final int DECODE = 0;
+        static final int TRIM = 1;
+
+        private int type;
+        private BlockingQueue<Item> in;
+        private BlockingQueue<Item> out;
+
+        public Stage(int type, BlockingQueue<Item> in, BlockingQueue<Item> out) {
+            this.type = type;
+            this.in = in;
+            this.out = out;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Item item = in.take();
+
+                    if (item.error == null) {
+                        try {
+                            if (type == DECODE) {
+                                decode(item);
+                            } else {
+                                trim(item);
+                            }
+                        } catch (Throwable e) {
+                            item.error = e;
+                        }
+                    }
+
+                    out.put(item);
+                }
+            } catch (InterruptedException e) {
+                // importing is done or aborted.
+            }
+        }
     }
 }
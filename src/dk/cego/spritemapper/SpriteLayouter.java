@@ -22,6 +22,7 @@ import java.util.List;
 public abstract class SpriteLayouter {
 	private int spacing = 0;
     private int border = 0;
+    private LayoutBound bound = null;
 
     /**
      * Do layout on given sprites and return number of sprite maps to contain all sprites.
@@ -57,4 +58,26 @@ public abstract class SpriteLayouter {
     public int getBorder() {
         return this.border;
     }
+
+    /**
+     * Set bound checked after every placed sprite. Optimal layouters set it while trying this layouter.
+     */
+    public SpriteLayouter setBound(LayoutBound bound) {
+        this.bound = bound;
+        return this;
+    }
+
+    public LayoutBound getBound() {
+        return this.bound;
+    }
+
+    /**
+     * Layouters call it after placing a sprite. Sprites must be placed map by map.
+     * @throws LayoutAbortedException if layout cannot be better than the best one found so far.
+     */
+    protected void placed(Sprite s) {
+        if (bound != null) {
+            bound.place(s);
+        }
+    }
 }
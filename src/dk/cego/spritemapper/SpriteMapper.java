@@ -32,7 +32,11 @@ import java.awt.image.BufferedImage;
 
 import javax.imageio.ImageIO;
 
+import dk.cego.spritemapper.cache.SpriteCache;
+import dk.cego.spritemapper.png.PngEncoder;
+import dk.cego.spritemapper.util.ArgbImages;
 import dk.cego.spritemapper.util.OutputFilename;
+import dk.cego.spritemapper.util.PixelKernels;
 
 public class SpriteMapper {
     private List<Sprite> sprites;
@@ -41,6 +45,8 @@ public class SpriteMapper {
     private ObjectHandler<Sprite> spritePreHandler = null;
     private Comparator<Sprite> spriteSorter = null;
     private SpriteLayouter layouter = null;
+    private SpriteCache cache = null;
+    private PngEncoder pngEncoder = new PngEncoder();
     private int maxMapNumber = 0;
 
     public SpriteMapper(List<Sprite> sprites) {
@@ -52,6 +58,16 @@ public class SpriteMapper {
         return this;
     }
 
+    public SpriteMapper setCache(SpriteCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public SpriteMapper setPngEncoder(PngEncoder pngEncoder) {
+        this.pngEncoder = pngEncoder;
+        return this;
+    }
+
     public SpriteMapper setSpriteSorter(Comparator<Sprite> spriteSorter) {
         this.spriteSorter = spriteSorter;
         return this;
@@ -69,7 +85,7 @@ public class SpriteMapper {
 
     public SpriteMapper doLayout(int maxWidth, int maxHeight) {
         if (trim) {
-            forEachSprite(new SpriteTrimmer());
+            forEachSprite(new SpriteTrimmer().setCache(cache));
         }
 
         if (spritePreHandler != null) {
@@ -84,6 +100,10 @@ public class SpriteMapper {
             maxMapNumber = layouter.layout(maxWidth, maxHeight, sprites);
         }
 
+        for (Sprite s : sprites) {
+            s.placeAliases();
+        }
+
         return this;
     }
 
@@ -110,6 +130,9 @@ public class SpriteMapper {
     	OutputFilename textureFilename = OutputFilename.parseString(texture);
     	textureFilename.setMaxNumber(maxMapNumber);
     	
+    	// duplicated sprites are written as separated frames sharing the same position.
+    	List<Sprite> frames = Sprite.withAliases(sprites);
+    	
     	for (int i = 0; i < maxMapNumber; i++) {
     		OutputStream out = new FileOutputStream(outFilename.filename());
     		String textureName = textureFilename.filename();
@@ -121,60 +144,103 @@ public class SpriteMapper {
     		}
     		
     		// write meta file.
-        	stream.write(textureName, sprites, i, dimensions[i], out);
+        	stream.write(textureName, frames, i, dimensions[i], out);
     	}
         
         return this;
     }
 
+	/**
+	 * Draw and write sprite maps one by one. Only one sprite map is kept in memory at a time.
+	 * Pixels of sprites which can be decoded again are released as soon as they are drawn.
+	 */
 	public SpriteMapper doWriteImages(String output, String type, Dimension[] dimensions, int imageType, boolean drawFrames) throws IOException {
-        //Draw the sprites in memory.
-        List<BufferedImage> images = new ArrayList<BufferedImage>(dimensions.length);
-        Graphics2D[] graphics = new Graphics2D[dimensions.length];
-        int number = 0;
+		return doWriteImages(output, type, dimensions, imageType, drawFrames, false);
+	}
+
+	/**
+	 * Draw and write sprite maps one by one like {@link #doWriteImages(String, String, Dimension[], int, boolean)}.
+	 * If <code>discardImages</code> is true, pixels of all sprites are dropped as soon as they are drawn,
+	 * so it should only be set for last texture.
+	 */
+	public SpriteMapper doWriteImages(String output, String type, Dimension[] dimensions, int imageType, boolean drawFrames,
+			boolean discardImages) throws IOException {
+        // group sprites by sprite map.
+        List<List<Sprite>> maps = new ArrayList<List<Sprite>>(dimensions.length);
         
-        for (Dimension d : dimensions) {
-	        BufferedImage image = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
-	        images.add(image);
-	        graphics[number] = image.createGraphics();
-	        number++;
+        for (int i = 0; i < dimensions.length; i++) {
+        	maps.add(new ArrayList<Sprite>());
         }
         
-        Graphics2D g;
-        
         for (Sprite s : sprites) {
-        	AffineTransform t;
-            BufferedImage img = s.image;
+        	maps.get(s.mapNumber).add(s);
+        }
+        
+        OutputFilename outFilename = OutputFilename.parseString(output);
+    	outFilename.setMaxNumber(dimensions.length);
+    	
+        for (int i = 0; i < dimensions.length; i++) {
+        	BufferedImage image = drawMap(maps.get(i), dimensions[i], imageType, drawFrames, discardImages);
+        	File outFile = new File(outFilename.filename());
+        	
+        	if (pngEncoder != null && type.equalsIgnoreCase("png")) {
+        		pngEncoder.write(image, outFile);
+        	} else {
+        		ImageIO.write(image, type, outFile);
+        	}
+        }
+        
+        return this;
+    }
+
+    private BufferedImage drawMap(List<Sprite> map, Dimension d, int imageType, boolean drawFrames, boolean discardImages) throws IOException {
+        BufferedImage image = new BufferedImage(d.width, d.height, imageType);
+        Graphics2D g = image.createGraphics();
+        
+        for (Sprite s : map) {
+            // nothing to draw for a full transparent sprite.
+            if (s.colorRect.w == 0 || s.colorRect.h == 0) {
+                if (discardImages) {
+                    s.discardImage();
+                }
+
+                continue;
+            }
+
+            BufferedImage img = s.getImage();
             
-            if (s.rotated) {
-                t = new AffineTransform(0, 1, -1, 0, s.x + img.getHeight(), s.y);
+            // sprites never overlap, so pixels can be drawn to transparent area of sprite map directly.
+            if (imageType == BufferedImage.TYPE_INT_ARGB && ArgbImages.isArgb(img)) {
+                int stride = ArgbImages.scanlineStride(image);
+                PixelKernels.drawOverTransparent(ArgbImages.data(img), ArgbImages.offset(img), ArgbImages.scanlineStride(img),
+                    ArgbImages.data(image), ArgbImages.offset(image) + s.y * stride + s.x, stride,
+                    img.getWidth(), img.getHeight(), s.rotated);
             } else {
-                t = new AffineTransform(1, 0, 0, 1, s.x, s.y);
+                AffineTransform t;
+                
+                if (s.rotated) {
+                    t = new AffineTransform(0, 1, -1, 0, s.x + img.getHeight(), s.y);
+                } else {
+                    t = new AffineTransform(1, 0, 0, 1, s.x, s.y);
+                }
+                
+                g.drawImage(img, t, null);
             }
             
-        	g = graphics[s.mapNumber];
-            g.drawImage(img, t, null);
-            
             if (drawFrames) {
                 g.setColor(java.awt.Color.red);
                 g.drawRect(s.x, s.y, s.w - 1, s.h - 1);
             }
+
+            if (discardImages) {
+                s.discardImage();
+            } else {
+                s.releaseImage();
+            }
         }
         
-        for (int i = 0, length = graphics.length; i < length; i++) {
-        	graphics[i].dispose();
-        }
-        
-        OutputFilename outFilename = OutputFilename.parseString(output);
-    	outFilename.setMaxNumber(images.size());
-    	
-    	// save images to files.
-        for (BufferedImage img : images) {
-        	File outFile = new File(outFilename.filename());
-    		ImageIO.write(img, type, outFile);
-        }
-        
-        return this;
+        g.dispose();
+        return image;
     }
 
     private SpriteMapper forEachSprite(ObjectHandler<Sprite> handler) {
@@ -72,13 +72,25 @@ public class SpriteMapperCLI {
         Set<String> validArguments = new HashSet<String>();
         validArguments.add("base-dir");
         validArguments.add("algorithm");
+        validArguments.add("guillotine-merge");
+        validArguments.add("sort");
+        validArguments.add("orientation");
         validArguments.add("max-width");
         validArguments.add("max-height");
         validArguments.add("use-pot-size");
         validArguments.add("draw-frames");
         validArguments.add("trim");
+        validArguments.add("polygon-trim");
+        validArguments.add("polygon-vertices");
+        validArguments.add("remove-duplicates");
+        validArguments.add("lazy-decode");
+        validArguments.add("cache-dir");
+        validArguments.add("cache-pixels");
         validArguments.add("spacing");
         validArguments.add("border");
+        validArguments.add("threads");
+        validArguments.add("compression-level");
+        validArguments.add("png-filter");
 
         try {
             Map<String, List<String>> arguments = parseArguments(args);
@@ -107,6 +119,11 @@ public class SpriteMapperCLI {
                 	metaConfig.type = "zwoptex2";
                 	metaConfig.path = argument(arg);
                 	metaConfigList.add(metaConfig);
+                } else if (option.equals("polygon")) {
+                	MetaConfig metaConfig = new MetaConfig();
+                	metaConfig.type = "polygon";
+                	metaConfig.path = argument(arg);
+                	metaConfigList.add(metaConfig);
                 } else if (option.equals("keep-dir")) {
                 	keepDir = Boolean.parseBoolean(argument(arg, "true"));
                 } else if (option.equals("output")) {
@@ -198,6 +215,10 @@ public class SpriteMapperCLI {
         System.out.println();
         System.out.println("Usage: java -jar SpriteMapper.jar [--options...] <image files or dirs...>");
         System.out.println();
+        System.out.println("Zip and jar archives can be used as dirs, e.g. 'assets.zip' or 'assets.zip/sprites/'.");
+        System.out.println("Images in archives are read directly without being extracted.");
+        System.out.println("Existing sprite maps can be packed again by their Zwoptex2 plist files, e.g. 'old-map.plist'.");
+        System.out.println();
         System.out.println("Config file:");
         System.out.println("  --config=CONFIG_FILE_NAME  - Use config file to pack many different sprites to differnt sprite maps.");
         System.out.println("                               Once config file is set, image files and dirs in argument is ignored.");
@@ -211,6 +232,7 @@ public class SpriteMapperCLI {
         System.out.println();
         System.out.println("Metadata options:");
         System.out.println("  --zwoptex2=meta{n}.plist   - Output metadata in Zwoptex2 general plist format.");
+        System.out.println("  --polygon=meta{n}.plist    - Output metadata in cocos2d-x plist format 3 with polygon meshes.");
         System.out.println("  --keep-dir=false           - Keep dir name for frame keys in metadata file.");
         System.out.println();
         System.out.println("Output options:");
@@ -219,12 +241,20 @@ public class SpriteMapperCLI {
         System.out.println("                               start with 1 instead of 0.");
         System.out.println("                               If --max-height is 0 or files can be packed in one sprite map, sequence");
         System.out.println("                               number will become an empty string. Use '{n!}' to force generating number.");
+        System.out.println("  --compression-level=4      - Set zlib compression level of png output. Can be 0 to 9.");
+        System.out.println("  --png-filter=none          - Set row filter of png output. Can be 'none', 'sub', 'up', 'average', 'paeth'");
+        System.out.println("                               or 'adaptive'.");
         System.out.println();
         System.out.println("Packing options:");
         System.out.println("  --base-dir=.               - Base dir of image files and directories.");
-        System.out.println("  --algorithm=maxrects       - Set packing algorithm. Can be 'maxrects', 'guillotine' and/or 'shelf'.");
-        System.out.println("                               Multiple algorithms can be used together, e.g. 'maxrects,guillotine,shelf'.");
+        System.out.println("  --algorithm=maxrects       - Set packing algorithm. Can be 'maxrects', 'guillotine', 'skyline' and/or 'shelf'.");
+        System.out.println("                               Multiple algorithms can be used together, e.g. 'maxrects,guillotine,skyline,shelf'.");
         System.out.println("                               The most optimal algorithm will be chosen for final output.");
+        System.out.println("  --guillotine-merge=false   - Merge adjacent free spaces in guillotine algorithm. Often packs tighter.");
+        System.out.println("  --sort=area                - Set sprite order before packing. Can be 'area', 'width' and/or 'height'.");
+        System.out.println("  --orientation=landscape    - Rotate sprites before packing. Can be 'landscape' and/or 'portrait'.");
+        System.out.println("                               If several orders or orientations are set, all combinations are tried");
+        System.out.println("                               with all algorithms and the most optimal one is chosen.");
         System.out.println("  --max-width=1024           - Set maximum width. Default maximum width is 1024 pixels.");
         System.out.println("  --max-height=0             - Set maximum height. Default maximum height is 0, which means no limit.");
         System.out.println("                               If image files cannot be packed into one sprite due to max height, they will be");
@@ -232,8 +262,19 @@ public class SpriteMapperCLI {
         System.out.println("  --use-pot-size=false       - Use POT (Power Of Two) value for width and height of sprite map.");
         System.out.println("  --draw-frames=false        - Draw frames around images in sprite map.");
         System.out.println("  --trim=false               - Trim transparent edges.");
+        System.out.println("  --polygon-trim=false       - Also trace a convex polygon around pixels of each image for --polygon metadata.");
+        System.out.println("                               Layout still uses trimmed rectangles. Implies --trim=true.");
+        System.out.println("  --polygon-vertices=8       - Set maximum vertices of a polygon. Must be at least 3. Requires --polygon-trim=true.");
+        System.out.println("  --remove-duplicates=false  - Pack images with identical pixels only once. Their frames share the same position.");
+        System.out.println("  --lazy-decode=false        - Only read image headers on import and decode pixels when drawing sprite maps.");
+        System.out.println("                               It uses much less memory for large inputs but decodes trimmed images twice.");
+        System.out.println("  --cache-dir=               - Cache image dimensions and trimming results in this dir across runs.");
+        System.out.println("                               Unchanged images are not scanned again.");
+        System.out.println("  --cache-pixels=false       - Also cache trimmed pixels in cache dir. Only used with --lazy-decode.");
         System.out.println("  --spacing=0                - Set sprite spacing.");
         System.out.println("  --border=0                 - Set border padding.");
+        System.out.println("  --threads=1                - Set number of worker threads. 0 means number of available processors.");
+        System.out.println("                               Also used to try packing algorithms and compress png output.");
         System.out.println();
         System.out.println("Others:");
         System.out.println("  --version                  - Show SpriteMapper version number.");
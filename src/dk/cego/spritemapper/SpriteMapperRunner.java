@@ -20,21 +20,34 @@ import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
+import dk.cego.spritemapper.cache.SpriteCache;
 import dk.cego.spritemapper.config.Config;
+import dk.cego.spritemapper.config.GlobPatternCompiler;
 import dk.cego.spritemapper.config.InputConfig;
 import dk.cego.spritemapper.config.MetaConfig;
 import dk.cego.spritemapper.config.OutputConfig;
 import dk.cego.spritemapper.config.TextureConfig;
 import dk.cego.spritemapper.guillotine.OptimalGuillotineLayouter;
 import dk.cego.spritemapper.maxrects.OptimalMaxRectsLayouter;
-import dk.cego.spritemapper.shelf.ShelfLayouter;
+import dk.cego.spritemapper.png.PngEncoder;
+import dk.cego.spritemapper.shelf.OptimalShelfLayouter;
+import dk.cego.spritemapper.skyline.OptimalSkylineLayouter;
 import dk.cego.spritemapper.spritecomparators.AreaComparator;
+import dk.cego.spritemapper.spritecomparators.HeightComparator;
+import dk.cego.spritemapper.spritecomparators.WidthComparator;
 import dk.cego.spritemapper.spritehandlers.Landscape;
+import dk.cego.spritemapper.spritehandlers.Portrait;
 
 import com.esotericsoftware.wildcard.Paths;
 
@@ -46,13 +59,21 @@ public class SpriteMapperRunner {
 	
 	private File baseDir = new File(".");
 	private OptimalLayouter layouter = new OptimalLayouter();
+	private ObjectHandler<Sprite> spriteHandler = new Landscape();
+	private Comparator<Sprite> spriteSorter = new AreaComparator();
 	private int maxWidth = 1024;
 	private int maxHeight = 0;
 	private boolean usePOTSize = false;
 	private boolean drawFrames = false;
 	private boolean trim = false;
+	private int polygonVertices = 0;
+	private boolean removeDuplicates = false;
 	private int spacing = 0;
 	private int border = 0;
+	private int threads = 1;
+	private boolean lazyDecode = false;
+	private SpriteCache cache = null;
+	private PngEncoder pngEncoder = new PngEncoder();
 	
 	public SpriteMapperRunner(Config config) throws ArgumentException {
 		this.config = config;
@@ -60,24 +81,85 @@ public class SpriteMapperRunner {
 	}
 	
 	public void run() throws IOException, ArgumentException {
-        List<File> files = scanInput();
+		Map<SpriteArchive, Set<String>> archives = new LinkedHashMap<SpriteArchive, Set<String>>();
+		
+		try {
+			run(archives);
+		} finally {
+			// archives are kept open until sprite maps are written as entries may be decoded lazily.
+			for (SpriteArchive archive : archives.keySet()) {
+				archive.close();
+			}
+		}
+	}
+	
+	private void run(Map<SpriteArchive, Set<String>> archives) throws IOException, ArgumentException {
+        List<SpriteAtlas> atlases = new LinkedList<SpriteAtlas>();
+        List<File> files = scanInput(archives, atlases);
+        int archivedFiles = 0;
+        
+        for (Set<String> entries : archives.values()) {
+        	archivedFiles += entries.size();
+        }
         
         // skip this config if files set is empty.
-        if (files.isEmpty()) {
+        if (files.isEmpty() && archivedFiles == 0 && atlases.isEmpty()) {
         	return;
         }
 
-        List<Sprite> sprites = new SpriteImporter().importSprites(baseDir, files);
+        if (cache != null) {
+        	cache.load();
+        }
+        
+        // trim and pre-handle sprites while importing, so that mapper doesn't need extra passes.
+        SpriteImporter importer = new SpriteImporter()
+        .setThreads(threads)
+        .setLazyDecode(lazyDecode)
+        .setCache(cache)
+        .setTrimmer(trim ? new SpriteTrimmer().setCache(cache).setPolygonVertices(polygonVertices) : null);
+        
+        if (spriteHandler != null) {
+        	importer.setSpriteHandler(spriteHandler);
+        }
+        
+        List<Sprite> sprites = importer.importSprites(baseDir, files);
+        
+        for (Map.Entry<SpriteArchive, Set<String>> entry : archives.entrySet()) {
+        	sprites.addAll(importer.importSprites(entry.getKey(), entry.getValue()));
+        }
+        
+        if (!atlases.isEmpty()) {
+        	List<Sprite> frames = new ArrayList<Sprite>();
+        	
+        	for (SpriteAtlas atlas : atlases) {
+        		frames.addAll(importer.importSprites(atlas));
+        	}
+        	
+        	// frames are in layout order of old sprite maps. sort them by name like files to generate stable result.
+        	Collections.sort(frames, new Comparator<Sprite>() {
+        		@Override
+        		public int compare(Sprite a, Sprite b) {
+        			return a.name.compareTo(b.name);
+        		}
+        	});
+        	sprites.addAll(frames);
+        }
+        
+        if (removeDuplicates) {
+        	sprites = new SpriteDeduplicator().deduplicate(sprites);
+        }
         
         layouter.setUsePOTSize(usePOTSize)
+        .setThreads(threads)
         .setBorder(border)
         .setSpacing(spacing);
 
         SpriteMapper mapper = new SpriteMapper(sprites);
         
-        mapper.setTrim(trim)
-        .setSpritePreHandler(new Landscape())
-        .setSpriteSorter(new AreaComparator())
+        mapper.setTrim(false)
+        .setCache(cache)
+        .setPngEncoder(pngEncoder.setThreads(threads))
+        .setSpriteSorter(spriteSorter)
         .setLayouter(layouter)
         .doLayout(maxWidth, maxHeight);
         
@@ -96,11 +178,18 @@ public class SpriteMapperRunner {
         	}
         }
 
+        int textures = 0;
+        
+        for (OutputConfig output : config.outputConfigList) {
+        	textures += output.textureConfigList.size();
+        }
+        
         // write output image files.
         for (OutputConfig output : config.outputConfigList) {
-        	// write images.
+        	// write images. pixels are not needed any more once last texture is drawn.
         	for (TextureConfig texture : output.textureConfigList) {
-        		mapper.doWriteImages(texture.path, texture.type, dimensions, getImageType(texture.type), drawFrames);
+        		textures--;
+        		mapper.doWriteImages(texture.path, texture.type, dimensions, getImageType(texture.type), drawFrames, textures == 0);
         	}
         	
         	String texturePath = "";
@@ -121,6 +210,10 @@ public class SpriteMapperRunner {
             	mapper.doMetaStream(meta.path, texturePath, stream, dimensions, meta.keepDir);
             }
         }
+        
+        if (cache != null) {
+        	cache.save();
+        }
 	}
 	
 	private final void parseConfig() throws ArgumentException {
@@ -142,27 +235,49 @@ public class SpriteMapperRunner {
 			}
 		}
 		
-		// algorithm.
+		// guillotine merge. needed by guillotine layouters below.
+		value = options.get("guillotine-merge");
+		boolean guillotineMerge = value != null && Boolean.parseBoolean(value);
+		
+		// algorithm. use "maxrects" as default.
 		value = options.get("algorithm");
+		String[] algorithms = value == null ? new String[] {"maxrects"} : value.split(",");
+		
+		// sort orders and orientations.
+		value = options.get("sort");
+		List<Comparator<Sprite>> sorters = new ArrayList<Comparator<Sprite>>();
+		
+		for (String sort : (value == null ? "area" : value).split(",")) {
+			sorters.add(parseSpriteSorter(sort.trim()));
+		}
 		
-		if (value == null) {
-			// use "maxrects" as default.
-			layouter.add(new OptimalMaxRectsLayouter());
+		value = options.get("orientation");
+		List<ObjectHandler<Sprite>> handlers = new ArrayList<ObjectHandler<Sprite>>();
+		
+		for (String orientation : (value == null ? "landscape" : value).split(",")) {
+			handlers.add(parseSpriteHandler(orientation.trim()));
+		}
+		
+		if (sorters.size() == 1 && handlers.size() == 1) {
+			spriteSorter = sorters.get(0);
+			spriteHandler = handlers.get(0);
+			addAlgorithms(layouter, algorithms, guillotineMerge);
 		} else {
-			String[] algorithms = value.split(",");
+			// try all algorithms with all orders. sprites are rotated once per orientation and sorted once per order.
+			// only ordered layouters order sprites, so that each order gets the same layout as it gets alone.
+			spriteHandler = null;
+			spriteSorter = null;
 			
-			for (String a : algorithms) {
-				String algorithm = a.trim();
+			for (ObjectHandler<Sprite> handler : handlers) {
+				OrderedLayouter oriented = new OrderedLayouter(handler, null);
 				
-				if (algorithm.equals("maxrects")) {
-					layouter.add(new OptimalMaxRectsLayouter());
-				} else if (algorithm.equals("guillotine")) {
-					layouter.add(new OptimalGuillotineLayouter());
-				} else if (algorithm.equals("shelf")) {
-					layouter.add(new ShelfLayouter());
-				} else {
-					throw new ArgumentException("Unsupported algorithm. Algorithm: " + algorithm);
+				for (Comparator<Sprite> sorter : sorters) {
+					OrderedLayouter sorted = new OrderedLayouter(null, sorter);
+					addAlgorithms(sorted, algorithms, guillotineMerge);
+					oriented.add(sorted);
 				}
+				
+				layouter.add(oriented);
 			}
 		}
 		
@@ -209,6 +324,63 @@ public class SpriteMapperRunner {
 			trim = Boolean.parseBoolean(value);
 		}
 		
+		// polygon trim.
+		value = options.get("polygon-trim");
+		
+		if (value != null && Boolean.parseBoolean(value)) {
+			trim = true;
+			polygonVertices = 8;
+		}
+		
+		// polygon vertices.
+		value = options.get("polygon-vertices");
+		
+		if (value != null) {
+			if (polygonVertices == 0) {
+				throw new ArgumentException("Polygon vertices is only used with --polygon-trim=true. Polygon vertices: " + value);
+			}
+			
+			polygonVertices = Integer.parseInt(value);
+			
+			if (polygonVertices < 3) {
+				throw new ArgumentException("Polygon vertices must be at least 3. Polygon vertices: " + value);
+			}
+		}
+		
+		// remove duplicates.
+		value = options.get("remove-duplicates");
+		
+		if (value != null) {
+			removeDuplicates = Boolean.parseBoolean(value);
+		}
+		
+		// lazy decode.
+		value = options.get("lazy-decode");
+		
+		if (value != null) {
+			lazyDecode = Boolean.parseBoolean(value);
+		}
+		
+		// cache dir.
+		value = options.get("cache-dir");
+		
+		if (value != null && !value.isEmpty()) {
+			File cacheDir = new File(value);
+			
+			if (cacheDir.exists() && !cacheDir.isDirectory()) {
+				throw new ArgumentException("Cache dir is not a directory. Dir: " + cacheDir.getPath());
+			}
+			
+			cache = new SpriteCache(cacheDir);
+		}
+		
+		// cache pixels.
+		value = options.get("cache-pixels");
+		
+		if (value != null && cache != null) {
+			cache.setCachePixels(Boolean.parseBoolean(value));
+		}
+		
 		// spacing.
 		value = options.get("spacing");
 		
@@ -230,15 +402,104 @@ public class SpriteMapperRunner {
             	throw new ArgumentException("Spacing must be positive or 0 integer. Max height: " + value);
             }
 		}
+		
+		// threads.
+		value = options.get("threads");
+		
+		if (value != null) {
+			threads = Integer.parseInt(value);
+			
+			if (threads < 0) {
+				throw new ArgumentException("Threads must be positive or 0 integer. Threads: " + value);
+			}
+			
+			// 0 means using all available processors.
+			if (threads == 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+		}
+		
+		// compression level.
+		value = options.get("compression-level");
+		
+		if (value != null) {
+			int level = Integer.parseInt(value);
+			
+			if (level < 0 || level > 9) {
+				throw new ArgumentException("Compression level must be between 0 and 9. Compression level: " + value);
+			}
+			
+			pngEncoder.setCompressionLevel(level);
+		}
+		
+		// png filter.
+		value = options.get("png-filter");
+		
+		if (value != null) {
+			int filter = PngEncoder.parseFilter(value);
+			
+			if (filter < 0) {
+				throw new ArgumentException("Unsupported PNG filter. Filter: " + value);
+			}
+			
+			pngEncoder.setFilter(filter);
+		}
+	}
+	
+	/**
+	 * Add optimal layouters of algorithms to given layouter.
+	 */
+	private static void addAlgorithms(OptimalLayouter layouter, String[] algorithms, boolean guillotineMerge) throws ArgumentException {
+		for (String a : algorithms) {
+			String algorithm = a.trim();
+			
+			if (algorithm.equals("maxrects")) {
+				layouter.add(new OptimalMaxRectsLayouter());
+			} else if (algorithm.equals("guillotine")) {
+				layouter.add(new OptimalGuillotineLayouter(guillotineMerge));
+			} else if (algorithm.equals("skyline")) {
+				layouter.add(new OptimalSkylineLayouter());
+			} else if (algorithm.equals("shelf")) {
+				layouter.add(new OptimalShelfLayouter());
+			} else {
+				throw new ArgumentException("Unsupported algorithm. Algorithm: " + algorithm);
+			}
+		}
+	}
+	
+	private static Comparator<Sprite> parseSpriteSorter(String sort) throws ArgumentException {
+		if (sort.equals("area")) {
+			return new AreaComparator();
+		} else if (sort.equals("width")) {
+			return new WidthComparator();
+		} else if (sort.equals("height")) {
+			return new HeightComparator();
+		}
+		
+		throw new ArgumentException("Unsupported sort order. Sort: " + sort);
+	}
+	
+	private static ObjectHandler<Sprite> parseSpriteHandler(String orientation) throws ArgumentException {
+		if (orientation.equals("landscape")) {
+			return new Landscape();
+		} else if (orientation.equals("portrait")) {
+			return new Portrait();
+		}
+		
+		throw new ArgumentException("Unsupported orientation. Orientation: " + orientation);
 	}
 	
 	/**
 	 * Scan base-dir and filter files with input config using OR logic.
+	 * Inputs inside zip or jar archives are added to archives instead of returned list.
+	 * Existing sprite maps, i.e. plist files or inputs with type "atlas", are added to atlases.
+	 * @param archives opened archives and entries to import.
+	 * @param atlases existing sprite maps to import.
 	 * @return
 	 * @throws ArgumentException
 	 * @throws IOException 
 	 */
-	private List<File> scanInput() throws ArgumentException, IOException {
+	private List<File> scanInput(Map<SpriteArchive, Set<String>> archives, List<SpriteAtlas> atlases) throws ArgumentException, IOException {
 		if (config.inputConfigList.isEmpty()) {
 			throw new ArgumentException("Must set at least one input image file or directory.");
 		}
@@ -256,6 +517,23 @@ public class SpriteMapperRunner {
 				inputFile = new File(baseDir, input.path);
 			}
 			
+			if (input.type.equals("atlas") || (input.type.isEmpty() && SpriteAtlas.isAtlas(input.path))) {
+				if (!inputFile.isFile()) {
+					throw new ArgumentException("Sprite map plist is not found. File: " + inputFile.getPath());
+				}
+				
+				atlases.add(SpriteAtlas.load(inputFile, baseDir));
+				continue;
+			}
+			
+			if (!input.type.isEmpty()) {
+				throw new ArgumentException("Unsupported input type. Type: " + input.type);
+			}
+			
+			if (scanArchive(inputFile, input.path, archives)) {
+				continue;
+			}
+			
 			if (inputFile.isFile()) {
 				paths.addFile(inputFile.getCanonicalPath());
 				continue;
@@ -284,6 +562,117 @@ public class SpriteMapperRunner {
 		return files;
 	}
 	
+	/**
+	 * Scan entries in archive if input path is an archive or a path inside an archive,
+	 * e.g. "assets.zip" or "assets.zip/sprites/**".
+	 * Entry names are matched against include and exclude filters.
+	 * @param inputFile
+	 * @param path
+	 * @param archives
+	 * @return false if input is not in an archive.
+	 * @throws IOException
+	 */
+	private boolean scanArchive(File inputFile, String path, Map<SpriteArchive, Set<String>> archives) throws IOException {
+		File archiveFile = inputFile;
+		String entryPath = "";
+		
+		if (!inputFile.isFile() || !SpriteArchive.isArchive(path)) {
+			int end = SpriteArchive.archiveExtensionEnd(path);
+			
+			if (end < 0 || end == path.length()) {
+				return false;
+			}
+			
+			archiveFile = new File(path.substring(0, end));
+			
+			if (!archiveFile.isAbsolute()) {
+				archiveFile = new File(baseDir, archiveFile.getPath());
+			}
+			
+			entryPath = path.substring(end + 1).replace(File.separatorChar, '/');
+			
+			if (!archiveFile.isFile()) {
+				return false;
+			}
+		}
+		
+		File key = archiveFile.getCanonicalFile();
+		SpriteArchive archive = null;
+		
+		for (SpriteArchive a : archives.keySet()) {
+			if (a.getFile().equals(key)) {
+				archive = a;
+				break;
+			}
+		}
+		
+		if (archive == null) {
+			archive = new SpriteArchive(key);
+			archives.put(archive, new TreeSet<String>());
+		}
+		
+		Pattern entryPattern = null;
+		String entryDir = null;
+		
+		if (entryPath.endsWith("/")) {
+			entryDir = entryPath;
+		} else if (entryPath.indexOf('*') >= 0 || entryPath.indexOf('?') >= 0 || entryPath.indexOf('{') >= 0) {
+			entryPattern = GlobPatternCompiler.compile(entryPath);
+		} else if (!entryPath.isEmpty()) {
+			entryDir = entryPath + "/";
+		}
+		
+		List<Pattern> includes = new LinkedList<Pattern>();
+		List<Pattern> excludes = new LinkedList<Pattern>();
+		
+		for (String filter : config.filters) {
+			if (filter.startsWith("!")) {
+				excludes.add(GlobPatternCompiler.compile(filter.substring(1)));
+			} else {
+				includes.add(GlobPatternCompiler.compile(filter));
+			}
+		}
+		
+		Set<String> entries = archives.get(archive);
+		
+		for (String entry : archive.getEntryNames()) {
+			if (entryPattern != null && !entryPattern.matcher(entry).find()) {
+				continue;
+			}
+			
+			if (entryDir != null && !entry.startsWith(entryDir) && !entry.equals(entryPath)) {
+				continue;
+			}
+			
+			if (!includes.isEmpty() && !matchesAny(includes, entry)) {
+				continue;
+			}
+			
+			if (matchesAny(excludes, entry)) {
+				continue;
+			}
+			
+			entries.add(entry);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Match patterns against both entry name and entry path.
+	 */
+	private static boolean matchesAny(List<Pattern> patterns, String entry) {
+		String name = entry.substring(entry.lastIndexOf('/') + 1);
+		
+		for (Pattern p : patterns) {
+			if (p.matcher(name).find() || p.matcher(entry).find()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	private final static int getImageType(String format) {
     	if (format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg")) {
     		return BufferedImage.TYPE_INT_RGB;
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.image.BufferedImage;
+
+import dk.cego.spritemapper.util.ArgbImages;
+import dk.cego.spritemapper.util.PixelKernels;
+
+/**
+ * A convex polygon covering all non-transparent pixels of a trimmed sprite, with its triangles.
+ * 
+ * Vertices are pixel corners in trimmed sprite coordinates, i.e. relative to top-left of color rect,
+ * so they are always integers. Engines can draw the triangles instead of the whole rectangle to reduce overdraw.
+ */
+public class SpritePolygon {
+	/**
+	 * Vertex coordinates in x0, y0, x1, y1... order.
+	 */
+	public int[] vertices;
+	
+	/**
+	 * Vertex indices. Every 3 indices are a triangle.
+	 */
+	public int[] triangles;
+	
+	public SpritePolygon(int[] vertices) {
+		int n = vertices.length / 2;
+		this.vertices = vertices;
+		this.triangles = new int[3 * Math.max(n - 2, 0)];
+		
+		// polygon is convex. a triangle fan is good enough.
+		for (int i = 1; i < n - 1; i++) {
+			triangles[3 * (i - 1)] = 0;
+			triangles[3 * (i - 1) + 1] = i;
+			triangles[3 * (i - 1) + 2] = i + 1;
+		}
+	}
+	
+	/**
+	 * Polygon of the whole w x h rectangle.
+	 * @param w
+	 * @param h
+	 * @return
+	 */
+	public static SpritePolygon rectangle(int w, int h) {
+		return new SpritePolygon(new int[] {0, 0, w, 0, w, h, 0, h});
+	}
+	
+	/**
+	 * Find a polygon with at most maxVertices vertices covering all non-transparent pixels in a region of image.
+	 * Convex hull of pixels is computed first. Then edges are removed one by one by extending their neighbor edges,
+	 * choosing the edge adding least area each time. Vertices never leave the region.
+	 * @param image
+	 * @param region color rect of sprite in image.
+	 * @param maxVertices at least 3.
+	 * @return polygon, or rectangle of region if polygon cannot be reduced to maxVertices vertices.
+	 */
+	public static SpritePolygon trace(BufferedImage image, Rectangle region, int maxVertices) {
+		long[] hull = hull(image, region);
+		int n = hull.length / 2;
+		
+		while (n > maxVertices && n > 3) {
+			int best = -1;
+			long bestX = 0, bestY = 0, bestArea = Long.MAX_VALUE;
+			
+			for (int k = 0; k < n; k++) {
+				long[] v = extendEdge(hull, n, k, region.w, region.h);
+				
+				if (v != null && v[2] < bestArea) {
+					best = k;
+					bestX = v[0];
+					bestY = v[1];
+					bestArea = v[2];
+				}
+			}
+			
+			if (best < 0) {
+				break;
+			}
+			
+			// replace vertex best and best + 1 with new vertex.
+			int next = (best + 1) % n;
+			hull[2 * best] = bestX;
+			hull[2 * best + 1] = bestY;
+			System.arraycopy(hull, 2 * next + 2, hull, 2 * next, 2 * (n - next - 1));
+			n--;
+		}
+		
+		if (n > maxVertices) {
+			return rectangle(region.w, region.h);
+		}
+		
+		int[] vertices = new int[2 * n];
+		
+		for (int i = 0; i < 2 * n; i++) {
+			vertices[i] = (int)hull[i];
+		}
+		
+		return new SpritePolygon(vertices);
+	}
+	
+	/**
+	 * Compute convex hull of all non-transparent pixel corners with monotone chain.
+	 * Only the left most and right most pixels of each row can be on hull.
+	 */
+	private static long[] hull(BufferedImage image, Rectangle region) {
+		int w = region.w;
+		int h = region.h;
+		long[] points = new long[8 * h];
+		int count = 0;
+		int[] pixels, row = null;
+		int offset, stride;
+		
+		if (ArgbImages.isArgb(image)) {
+			pixels = ArgbImages.data(image);
+			stride = ArgbImages.scanlineStride(image);
+			offset = ArgbImages.offset(image) + region.y * stride + region.x;
+		} else {
+			row = new int[w];
+			pixels = row;
+			stride = 0;
+			offset = 0;
+		}
+		
+		for (int y = 0; y < h; y++) {
+			if (row != null) {
+				image.getRGB(region.x, region.y + y, w, 1, row, 0, w);
+			}
+			
+			int start = offset + y * stride;
+			int left = PixelKernels.indexOfOpaque(pixels, start, start + w, 0xff000000);
+			
+			if (left < 0) {
+				continue;
+			}
+			
+			int right = PixelKernels.lastIndexOfOpaque(pixels, left, start + w, 0xff000000) - start + 1;
+			left -= start;
+			
+			// points are sorted by y and then x.
+			count = addPoint(points, count, left, y);
+			count = addPoint(points, count, right, y);
+			count = addPoint(points, count, left, y + 1);
+			count = addPoint(points, count, right, y + 1);
+		}
+		
+		int n = count / 2;
+		
+		if (n < 3) {
+			return new long[] {0, 0, w, 0, w, h, 0, h};
+		}
+		
+		// sort points by y, then by x. points of a row are added in order, only the 4 points of adjacent rows
+		// sharing the same y may be out of order.
+		sortPoints(points, n);
+		
+		long[] hull = new long[4 * n];
+		int size = 0;
+		
+		// lower and upper chain.
+		for (int pass = 0; pass < 2; pass++) {
+			int start = size;
+			
+			for (int j = 0; j < n; j++) {
+				int i = pass == 0 ? j : n - 1 - j;
+				long x = points[2 * i];
+				long y = points[2 * i + 1];
+				
+				while (size - start >= 2 && cross(hull, size - 2, size - 1, x, y) <= 0) {
+					size--;
+				}
+				
+				hull[2 * size] = x;
+				hull[2 * size + 1] = y;
+				size++;
+			}
+			
+			// last point is the first point of the other chain.
+			size--;
+		}
+		
+		long[] result = new long[2 * size];
+		System.arraycopy(hull, 0, result, 0, 2 * size);
+		return result;
+	}
+	
+	private static int addPoint(long[] points, int count, long x, long y) {
+		points[count] = x;
+		points[count + 1] = y;
+		return count + 2;
+	}
+	
+	private static void sortPoints(long[] points, int n) {
+		// insertion sort. points are nearly sorted.
+		for (int i = 1; i < n; i++) {
+			long x = points[2 * i];
+			long y = points[2 * i + 1];
+			int j = i - 1;
+			
+			while (j >= 0 && (points[2 * j + 1] > y || (points[2 * j + 1] == y && points[2 * j] > x))) {
+				points[2 * j + 2] = points[2 * j];
+				points[2 * j + 3] = points[2 * j + 1];
+				j--;
+			}
+			
+			points[2 * j + 2] = x;
+			points[2 * j + 3] = y;
+		}
+	}
+	
+	/**
+	 * Cross product of (b - a) and (p - a). It's positive if a, b, p turn to the same direction as hull.
+	 */
+	private static long cross(long[] hull, int a, int b, long px, long py) {
+		long ax = hull[2 * a], ay = hull[2 * a + 1];
+		return (hull[2 * b] - ax) * (py - ay) - (hull[2 * b + 1] - ay) * (px - ax);
+	}
+	
+	private static long cross(long ax, long ay, long bx, long by, long px, long py) {
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+	
+	/**
+	 * Try to remove edge k by extending edge k - 1 and k + 1 to meet at a new vertex.
+	 * New vertex is rounded to a nearby integer point keeping polygon convex and covering old one.
+	 * @return {x, y, added area x 2} or null if edge cannot be removed.
+	 */
+	private static long[] extendEdge(long[] hull, int n, int k, int w, int h) {
+		int i0 = (k + n - 1) % n, i1 = k, i2 = (k + 1) % n, i3 = (k + 2) % n;
+		long x0 = hull[2 * i0], y0 = hull[2 * i0 + 1];
+		long x1 = hull[2 * i1], y1 = hull[2 * i1 + 1];
+		long x2 = hull[2 * i2], y2 = hull[2 * i2 + 1];
+		long x3 = hull[2 * i3], y3 = hull[2 * i3 + 1];
+		long dx1 = x1 - x0, dy1 = y1 - y0, dx2 = x3 - x2, dy2 = y3 - y2;
+		long denominator = dx1 * dy2 - dy1 * dx2;
+		
+		// edges don't meet in front of edge k.
+		if (n <= 3 || denominator <= 0) {
+			return null;
+		}
+		
+		// intersection is (x1, y1) + t * (dx1, dy1).
+		double t = (double)((x2 - x1) * dy2 - (y2 - y1) * dx2) / denominator;
+		double vx = x1 + t * dx1;
+		double vy = y1 + t * dy1;
+		
+		if (vx < -1 || vy < -1 || vx > w + 1 || vy > h + 1) {
+			return null;
+		}
+		
+		int i4 = (k + n - 2) % n, i5 = (k + 3) % n;
+		long x4 = hull[2 * i4], y4 = hull[2 * i4 + 1];
+		long x5 = hull[2 * i5], y5 = hull[2 * i5 + 1];
+		long oldArea = x0 * y1 - x1 * y0 + x1 * y2 - x2 * y1 + x2 * y3 - x3 * y2;
+		long[] best = null;
+		
+		for (long x = (long)Math.floor(vx) - 1; x <= (long)Math.ceil(vx) + 1; x++) {
+			for (long y = (long)Math.floor(vy) - 1; y <= (long)Math.ceil(vy) + 1; y++) {
+				if (x < 0 || y < 0 || x > w || y > h) {
+					continue;
+				}
+				
+				// new polygon must be convex and contain removed vertices.
+				if (cross(x0, y0, x, y, x1, y1) < 0 || cross(x, y, x3, y3, x2, y2) < 0 ||
+						cross(x0, y0, x, y, x3, y3) <= 0 ||
+						(n > 4 && cross(x4, y4, x0, y0, x, y) <= 0) ||
+						(n > 4 && cross(x, y, x3, y3, x5, y5) <= 0) ||
+						(n == 4 && cross(x3, y3, x0, y0, x, y) <= 0)) {
+					continue;
+				}
+				
+				long area = x0 * y - x * y0 + x * y3 - x3 * y - oldArea;
+				
+				if (best == null || area < best[2]) {
+					best = new long[] {x, y, area};
+				}
+			}
+		}
+		
+		return best;
+	}
+}
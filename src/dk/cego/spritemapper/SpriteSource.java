@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * SpriteSource knows where sprite pixels come from.
+ * Sprite can use it to decode its image on demand instead of keeping pixels in memory all the time.
+ */
+public interface SpriteSource {
+	/**
+	 * Read image dimension from image header without decoding pixels.
+	 * @return
+	 * @throws IOException
+	 */
+	public Dimension probe() throws IOException;
+	
+	/**
+	 * Decode full image.
+	 * @return
+	 * @throws IOException
+	 */
+	public BufferedImage read() throws IOException;
+	
+	/**
+	 * Decode pixels in region.
+	 * @param region a rectangle in image coordinates.
+	 * @return
+	 * @throws IOException
+	 */
+	public BufferedImage read(Rectangle region) throws IOException;
+}
@@ -19,94 +19,229 @@ package dk.cego.spritemapper;
 
 import java.awt.image.Raster;
 import java.awt.image.BufferedImage;
-import java.awt.Graphics2D;
-import java.awt.geom.AffineTransform;
+import java.io.IOException;
+
+import dk.cego.spritemapper.cache.SpriteCache;
+import dk.cego.spritemapper.util.ArgbImages;
+import dk.cego.spritemapper.util.PixelKernels;
 
 public class SpriteTrimmer implements ObjectHandler<Sprite> {
+    private SpriteCache cache = null;
+    private int polygonVertices = 0;
+
+    /**
+     * Set cache to look up color rect of unchanged images. Images are not scanned on cache hit.
+     */
+    public SpriteTrimmer setCache(SpriteCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Also trace a polygon with at most maxVertices vertices for every sprite. 0 means not tracing polygon.
+     */
+    public SpriteTrimmer setPolygonVertices(int maxVertices) {
+        this.polygonVertices = maxVertices;
+        return this;
+    }
+
     public void handle(Sprite s) {
-        Raster r = s.image.getAlphaRaster();
+        handle(s, s.source);
+    }
 
-        if (r == null) {
+    /**
+     * Trim sprite. Color rect is cached by given source, so that sprites decoded without
+     * a source can still skip scanning pixels.
+     */
+    public void handle(Sprite s, SpriteSource source) {
+        Rectangle cached = cache == null ? null : cache.getColorRect(source);
+
+        if (cached != null) {
+            s.colorRect = cached;
+        } else {
+            findColorRect(s);
+
+            if (cache != null) {
+                cache.putColorRect(source, s.colorRect);
+            }
+        }
+
+        // Image is full transparent.
+        if (s.colorRect.w == 0 || s.colorRect.h == 0) {
+            s.w = 0;
+            s.h = 0;
+            s.releaseImage();
+            return;
+        }
+
+        if (polygonVertices > 0) {
+            tracePolygon(s);
+        }
+
+        if (s.colorRect.w == s.w && s.colorRect.h == s.h) {
+            s.releaseImage();
             return;
         }
 
-        int w = r.getWidth();
-        int h = r.getHeight();
-        int alpha[] = r.getPixels(0, 0, w, h, new int[w * h]);
-        int x, y, left, top;
+        // pixels can be decoded and cropped again on demand. don't keep them.
+        if (s.source != null) {
+            s.releaseImage();
+            s.w = s.colorRect.w;
+            s.h = s.colorRect.h;
+            return;
+        }
+
+        // trimmed image is a view of original pixels. nothing is copied.
+        s.image = FileSpriteSource.crop(s.image, s.colorRect);
+        s.w = s.colorRect.w;
+        s.h = s.colorRect.h;
+    }
+
+    private void tracePolygon(Sprite s) {
+        BufferedImage image = s.image;
+        Rectangle region = s.colorRect;
 
-        //Find left
-        outer:
-        for (x = 0; x < w; x++) {
-            for (y = 0; y < h; y++) {
-                if (alpha[y * w + x] > 0) {
-                    break outer;
-                }
+        try {
+            // color rect is known from cache and pixels are not decoded yet. only decode pixels in color rect.
+            if (image == null) {
+                image = s.getImage();
+                region = new Rectangle(0, 0, s.colorRect.w, s.colorRect.h);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        s.polygon = SpritePolygon.trace(image, region, polygonVertices);
+    }
+
+    private void findColorRect(Sprite s) {
+        BufferedImage image;
+
+        try {
+            image = s.getImage();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+
+        // read alpha channel from pixel array directly if possible.
+        if (ArgbImages.isArgb(image)) {
+            findColorRect(s, new PixelRows(ArgbImages.data(image), ArgbImages.offset(image), ArgbImages.scanlineStride(image)), w, h, 0xff000000);
+            return;
+        }
+
+        Raster r = image.getAlphaRaster();
+
+        if (r == null) {
+            return;
+        }
+
+        findColorRect(s, new RasterRows(r, w), w, h, 0xffffffff);
+    }
+
+    /**
+     * Find color rect row by row. A pixel is not transparent if <code>(pixel &amp; alphaMask) != 0</code>.
+     * Top and bottom rows are found first. Rows between them are only scanned outside of known left and right bounds.
+     */
+    private void findColorRect(Sprite s, Rows rows, int w, int h, int alphaMask) {
+        int x, y, top, bottom, left, right, offset;
+        int[] pixels;
+
+        //Find top
+        for (top = 0; top < h && isTransparentRow(rows, top, w, alphaMask); top++) {
+            // keep scanning.
         }
 
         // Image is full transparent.
-        if (x == w) {
+        if (top == h) {
             s.colorRect.x = 0;
             s.colorRect.y = 0;
             s.colorRect.w = 0;
             s.colorRect.h = 0;
-            s.w = 0;
-            s.h = 0;
             return;
         }
 
-        left = x;
-        s.colorRect.x = x;
+        //Find bottom
+        for (bottom = h - 1; bottom > top && isTransparentRow(rows, bottom, w, alphaMask); bottom--) {
+            // keep scanning.
+        }
+
+        left = w;
+        right = -1;
 
-        //Find right
-        outer:
-        for (x = w - 1; x > left; x--) {
-            for (y = 0; y < h; y++) {
-                if (alpha[y * w + x] > 0) {
-                    break outer;
-                }
+        //Find left and right
+        for (y = top; y <= bottom && (left > 0 || right < w - 1); y++) {
+            offset = rows.row(y);
+            pixels = rows.pixels;
+            x = PixelKernels.indexOfOpaque(pixels, offset, offset + left, alphaMask);
+
+            if (x >= 0) {
+                left = x - offset;
             }
-        }
-        
-        s.colorRect.w = x - left + 1;
 
-        //Find top
-        outer:
-        for (y = 0; y < h; y++) {
-            for (x = 0; x < w; x++) {
-                if (alpha[y * w + x] > 0) {
-                    break outer;
-                }
+            x = PixelKernels.lastIndexOfOpaque(pixels, offset + right + 1, offset + w, alphaMask);
+
+            if (x >= 0) {
+                right = x - offset;
             }
         }
 
-        top = y;
-        s.colorRect.y = y;
+        s.colorRect.x = left;
+        s.colorRect.y = top;
+        s.colorRect.w = right - left + 1;
+        s.colorRect.h = bottom - top + 1;
+    }
 
-        //Find bottom
-        outer:
-        for (y = h - 1; y > top; y--) {
-            for (x = 0; x < w; x++) {
-                if (alpha[y * w + x] > 0) {
-                    break outer;
-                }
-            }
+    private static boolean isTransparentRow(Rows rows, int y, int w, int alphaMask) {
+        int offset = rows.row(y);
+        return PixelKernels.isTransparent(rows.pixels, offset, w, alphaMask);
+    }
+
+    /**
+     * Rows of alpha values. Row y starts at <code>pixels[row(y)]</code>.
+     */
+    private static abstract class Rows {
+        int[] pixels;
+
+        abstract int row(int y);
+    }
+
+    /**
+     * Rows in int pixel array of an image.
+     */
+    private static class PixelRows extends Rows {
+        private int offset;
+        private int stride;
+
+        PixelRows(int[] pixels, int offset, int stride) {
+            this.pixels = pixels;
+            this.offset = offset;
+            this.stride = stride;
         }
-        
-        s.colorRect.h = y - top + 1;
 
-        if (s.colorRect.w == s.w && s.colorRect.h == s.h) {
-            return;
+        int row(int y) {
+            return offset + y * stride;
         }
+    }
+
+    /**
+     * Rows in alpha raster. Only one row is copied at a time.
+     */
+    private static class RasterRows extends Rows {
+        private Raster raster;
+        private int w;
 
-        BufferedImage trimmed = new BufferedImage(s.colorRect.w, s.colorRect.h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = trimmed.createGraphics();
-        g.drawImage(s.image, new AffineTransform(1f, 0f, 0f, 1f, -s.colorRect.x, -s.colorRect.y), null);
-        g.dispose();
+        RasterRows(Raster raster, int w) {
+            this.raster = raster;
+            this.w = w;
+            this.pixels = new int[w];
+        }
 
-        s.image = trimmed;
-        s.w = trimmed.getWidth();
-        s.h = trimmed.getHeight();
+        int row(int y) {
+            raster.getPixels(0, y, w, 1, pixels);
+            return 0;
+        }
     }
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import dk.cego.spritemapper.png.PngDecoder;
+
+/**
+ * Image file in a zip or jar archive. Entry is decoded from memory without being extracted.
+ */
+public class ZipEntrySpriteSource implements EncodedSpriteSource {
+	private SpriteArchive archive;
+	private String entry;
+	
+	public ZipEntrySpriteSource(SpriteArchive archive, String entry) {
+		this.archive = archive;
+		this.entry = entry;
+	}
+	
+	public SpriteArchive getArchive() {
+		return archive;
+	}
+	
+	public String getEntry() {
+		return entry;
+	}
+
+	@Override
+	public Dimension probe() throws IOException {
+		InputStream in = archive.openEntry(entry);
+		
+		try {
+			Dimension d = PngDecoder.probe(in);
+			
+			if (d != null) {
+				return d;
+			}
+		} finally {
+			in.close();
+		}
+		
+		// not a png. entry stream cannot be rewound, so open it again for ImageIO.
+		in = archive.openEntry(entry);
+		
+		try {
+			ImageInputStream iis = ImageIO.createImageInputStream(in);
+			
+			if (iis == null) {
+				throw new IOException("Cannot open image file. File: " + getPath());
+			}
+			
+			try {
+				return FileSpriteSource.probe(iis, getPath());
+			} finally {
+				iis.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public BufferedImage read() throws IOException {
+		return decode(readEncoded());
+	}
+	
+	@Override
+	public byte[] readEncoded() throws IOException {
+		return archive.readEntry(entry);
+	}
+	
+	@Override
+	public BufferedImage decode(byte[] encoded) throws IOException {
+		return FileSpriteSource.decode(encoded, getPath());
+	}
+
+	@Override
+	public BufferedImage read(Rectangle region) throws IOException {
+		return FileSpriteSource.crop(read(), region);
+	}
+	
+	private String getPath() {
+		return archive.getFile().getPath() + "/" + entry;
+	}
+	
+	public String toString() {
+		return "ZipEntrySpriteSource(" + getPath() + ")";
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.cache;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import dk.cego.spritemapper.EncodedSpriteSource;
+import dk.cego.spritemapper.Rectangle;
+import dk.cego.spritemapper.SpriteSource;
+import dk.cego.spritemapper.util.ArgbImages;
+
+/**
+ * A sprite source answers questions from cache and only asks real source on cache miss.
+ */
+public class CachedSpriteSource implements EncodedSpriteSource {
+	private SpriteCache cache;
+	private SpriteCache.Entry entry;
+	private SpriteSource source;
+	
+	CachedSpriteSource(SpriteCache cache, SpriteCache.Entry entry, SpriteSource source) {
+		this.cache = cache;
+		this.entry = entry;
+		this.source = source;
+	}
+	
+	SpriteCache.Entry getEntry() {
+		return entry;
+	}
+
+	@Override
+	public Dimension probe() throws IOException {
+		synchronized (cache) {
+			if (entry.width >= 0 && entry.height >= 0) {
+				return new Dimension(entry.width, entry.height);
+			}
+		}
+		
+		Dimension d = source.probe();
+		cache.putDimension(entry, d.width, d.height);
+		return d;
+	}
+
+	@Override
+	public BufferedImage read() throws IOException {
+		BufferedImage image = source.read();
+		cache.putDimension(entry, image.getWidth(), image.getHeight());
+		return image;
+	}
+
+	@Override
+	public byte[] readEncoded() throws IOException {
+		if (!(source instanceof EncodedSpriteSource)) {
+			return null;
+		}
+		
+		return ((EncodedSpriteSource)source).readEncoded();
+	}
+
+	@Override
+	public BufferedImage decode(byte[] encoded) throws IOException {
+		BufferedImage image = ((EncodedSpriteSource)source).decode(encoded);
+		cache.putDimension(entry, image.getWidth(), image.getHeight());
+		return image;
+	}
+
+	@Override
+	public BufferedImage read(Rectangle region) throws IOException {
+		Rectangle colorRect = cache.getCachedColorRect(entry);
+		boolean trimmed = cache.getCachePixels() && colorRect != null &&
+			colorRect.x == region.x && colorRect.y == region.y &&
+			colorRect.w == region.w && colorRect.h == region.h;
+		
+		if (!trimmed) {
+			return source.read(region);
+		}
+		
+		File file = cache.pixelsFile(entry, region);
+		
+		if (file.isFile()) {
+			try {
+				return readPixels(file, region);
+			} catch (IOException e) {
+				System.err.println("Ignore broken cached pixels. File: " + file.getPath());
+			}
+		}
+		
+		BufferedImage image = source.read(region);
+		writePixels(file, image);
+		return image;
+	}
+	
+	public String toString() {
+		return "CachedSpriteSource(" + source + ")";
+	}
+	
+	private static BufferedImage readPixels(File file, Rectangle region) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))));
+		
+		try {
+			int w = in.readInt();
+			int h = in.readInt();
+			
+			if (w != region.w || h != region.h) {
+				throw new IOException("Cached pixels don't match color rect.");
+			}
+			
+			BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			int[] data = ArgbImages.data(image);
+			
+			for (int i = 0, length = w * h; i < length; i++) {
+				data[i] = in.readInt();
+			}
+			
+			return image;
+		} finally {
+			in.close();
+		}
+	}
+	
+	private void writePixels(File file, BufferedImage image) throws IOException {
+		File dir = cache.getDir();
+		
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create cache dir. Dir: " + dir.getPath());
+		}
+		
+		image = ArgbImages.normalize(image);
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int[] data = ArgbImages.data(image);
+		int offset = ArgbImages.offset(image);
+		int stride = ArgbImages.scanlineStride(image);
+		File temp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(temp))));
+		
+		try {
+			out.writeInt(w);
+			out.writeInt(h);
+			
+			for (int y = 0; y < h; y++) {
+				for (int x = 0, i = offset + y * stride; x < w; x++, i++) {
+					out.writeInt(data[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		
+		if (!temp.renameTo(file)) {
+			temp.delete();
+		}
+	}
+}
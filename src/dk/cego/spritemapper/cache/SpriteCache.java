@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import dk.cego.spritemapper.FileSpriteSource;
+import dk.cego.spritemapper.Rectangle;
+import dk.cego.spritemapper.Sprite;
+import dk.cego.spritemapper.SpriteSource;
+
+/**
+ * SpriteCache remembers analysis result of image files across runs.
+ * 
+ * Entries are keyed by file path and validated by file size, modification time and content hash.
+ * If only modification time changes, e.g. after a fresh checkout, content hash is used to
+ * decide whether entry is still valid.
+ * 
+ * Cached data are original image dimension, color rect found by trimmer and, optionally,
+ * trimmed pixels. Index is stored in <code>index</code> file in cache dir. Trimmed pixels are
+ * stored in separated files named by content hash and color rect.
+ */
+public class SpriteCache {
+	private final static String INDEX_FILE = "index";
+	private final static String PIXELS_FILE_SUFFIX = ".pixels";
+	private final static int MAGIC = 0x53504d43;
+	private final static int VERSION = 1;
+	
+	private File dir;
+	private boolean cachePixels = false;
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	private boolean dirty = false;
+	
+	public SpriteCache(File dir) {
+		this.dir = dir;
+	}
+	
+	/**
+	 * Set whether to store trimmed pixels in cache.
+	 * Cached pixels are only used when pixels are decoded on demand.
+	 * @param cachePixels
+	 */
+	public SpriteCache setCachePixels(boolean cachePixels) {
+		this.cachePixels = cachePixels;
+		return this;
+	}
+	
+	public boolean getCachePixels() {
+		return cachePixels;
+	}
+	
+	public File getDir() {
+		return dir;
+	}
+	
+	/**
+	 * Load cache index. Broken or incompatible index is ignored.
+	 * @throws IOException
+	 */
+	public synchronized void load() throws IOException {
+		File index = new File(dir, INDEX_FILE);
+		entries.clear();
+		dirty = false;
+		
+		if (!index.isFile()) {
+			return;
+		}
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+		
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+			
+			for (int count = in.readInt(); count > 0; count--) {
+				Entry e = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readUTF());
+				e.width = in.readInt();
+				e.height = in.readInt();
+				
+				if (in.readBoolean()) {
+					e.colorRect = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+				}
+				
+				entries.put(e.path, e);
+			}
+		} catch (IOException e) {
+			System.err.println("Ignore broken sprite cache index. Error: " + e.getMessage());
+			entries.clear();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Save cache index if anything is changed.
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create cache dir. Dir: " + dir.getPath());
+		}
+		
+		// write to a temp file first so that a broken run never leaves a half-written index.
+		File index = new File(dir, INDEX_FILE);
+		File temp = new File(dir, INDEX_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			
+			for (Entry e : entries.values()) {
+				out.writeUTF(e.path);
+				out.writeLong(e.length);
+				out.writeLong(e.lastModified);
+				out.writeUTF(e.hash);
+				out.writeInt(e.width);
+				out.writeInt(e.height);
+				out.writeBoolean(e.colorRect != null);
+				
+				if (e.colorRect != null) {
+					out.writeInt(e.colorRect.x);
+					out.writeInt(e.colorRect.y);
+					out.writeInt(e.colorRect.w);
+					out.writeInt(e.colorRect.h);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		
+		if (!temp.renameTo(index)) {
+			index.delete();
+			
+			if (!temp.renameTo(index)) {
+				throw new IOException("Cannot write cache index. File: " + index.getPath());
+			}
+		}
+		
+		dirty = false;
+	}
+	
+	/**
+	 * Get a sprite source backed by this cache.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public SpriteSource getSource(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+		Entry e;
+		
+		synchronized (this) {
+			e = entries.get(path);
+			
+			if (e != null && e.length == length && e.lastModified == lastModified) {
+				return new CachedSpriteSource(this, e, new FileSpriteSource(file));
+			}
+		}
+		
+		// hash file content out of lock as it's slow.
+		String hash = hash(file);
+		
+		synchronized (this) {
+			if (e != null && e.length == length && e.hash.equals(hash)) {
+				e.lastModified = lastModified;
+			} else {
+				e = new Entry(path, length, lastModified, hash);
+				entries.put(path, e);
+			}
+			
+			dirty = true;
+		}
+		
+		return new CachedSpriteSource(this, e, new FileSpriteSource(file));
+	}
+	
+	/**
+	 * Get cached color rect of sprite.
+	 * @param s
+	 * @return color rect or null if it's unknown.
+	 */
+	public Rectangle getColorRect(Sprite s) {
+		return getColorRect(s.source);
+	}
+	
+	/**
+	 * Get cached color rect of image in sprite source.
+	 * @param source
+	 * @return color rect or null if it's unknown.
+	 */
+	public Rectangle getColorRect(SpriteSource source) {
+		if (!(source instanceof CachedSpriteSource)) {
+			return null;
+		}
+		
+		Entry e = ((CachedSpriteSource)source).getEntry();
+		
+		synchronized (this) {
+			if (e.colorRect == null) {
+				return null;
+			}
+			
+			return new Rectangle(e.colorRect.x, e.colorRect.y, e.colorRect.w, e.colorRect.h);
+		}
+	}
+	
+	/**
+	 * Remember color rect of sprite.
+	 * @param s
+	 */
+	public void putColorRect(Sprite s) {
+		putColorRect(s.source, s.colorRect);
+	}
+	
+	/**
+	 * Remember color rect of image in sprite source.
+	 * @param source
+	 * @param colorRect
+	 */
+	public void putColorRect(SpriteSource source, Rectangle colorRect) {
+		if (!(source instanceof CachedSpriteSource)) {
+			return;
+		}
+		
+		Entry e = ((CachedSpriteSource)source).getEntry();
+		
+		synchronized (this) {
+			e.colorRect = new Rectangle(colorRect.x, colorRect.y, colorRect.w, colorRect.h);
+			dirty = true;
+		}
+	}
+	
+	synchronized void putDimension(Entry e, int width, int height) {
+		if (e.width == width && e.height == height) {
+			return;
+		}
+		
+		e.width = width;
+		e.height = height;
+		dirty = true;
+	}
+	
+	synchronized Rectangle getCachedColorRect(Entry e) {
+		return e.colorRect;
+	}
+	
+	File pixelsFile(Entry e, Rectangle region) {
+		return new File(dir, e.hash + "-" + region.x + "-" + region.y + "-" + region.w + "-" + region.h + PIXELS_FILE_SUFFIX);
+	}
+	
+	private static String hash(File file) throws IOException {
+		MessageDigest digest;
+		
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		
+		InputStream in = new FileInputStream(file);
+		byte[] buffer = new byte[64 * 1024];
+		int read;
+		
+		try {
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		
+		StringBuilder sb = new StringBuilder(40);
+		
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		
+		return sb.toString();
+	}
+	
+	static class Entry {
+		String path;
+		long length;
+		long lastModified;
+		String hash;
+		int width = -1;
+		int height = -1;
+		Rectangle colorRect = null;
+		
+		Entry(String path, long length, long lastModified, String hash) {
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+}
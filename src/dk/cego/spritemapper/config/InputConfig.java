@@ -17,5 +17,6 @@
 package dk.cego.spritemapper.config;
 
 public class InputConfig {
+	public String type = "";
 	public String path = "";
 }
@@ -66,9 +66,12 @@ public class Parser {
 	 *   <sprites>
 	 *     <!-- define one sprite map. <sprite> property can overwrite any default option. -->
 	 *     <sprite border="1">
-	 *       <!-- input files or directories. -->
+	 *       <!-- input files, directories or zip archives. -->
 	 *       <input>res</input>
 	 *       <input>some-image.png</input>
+	 *       <input>some-archive.zip/res/</input>
+	 *       <!-- existing sprite map written in zwoptex2 format. frames are packed again. -->
+	 *       <input type="atlas">old-output.plist</input>
 	 *     
 	 *       <!-- file filters. -->
 	 *       <filter type="include">*.jpg</filter>
@@ -78,6 +81,7 @@ public class Parser {
 	 *       <output>
 	 *         <texture type="png">sample-output.png</texture>
 	 *         <meta type="zwoptex2" keep-dir="true">sample-output.plist</meta>
+	 *         <meta type="polygon" keep-dir="true">sample-output-polygon.plist</meta>
 	 *       </output>
 	 *     </sprite>
 	 *   
@@ -258,6 +262,12 @@ public class Parser {
 				if (tagName.equals(INPUT_ELEMENT)) {
 					// parse <input>
 					InputConfig c = new InputConfig();
+					String type = reader.getAttributeValue(null, TYPE_ATTRIBUTE);
+					
+					if (type != null) {
+						c.type = type;
+					}
+					
 					c.path = reader.getElementText();
 					config.inputConfigList.add(c);
 				} else if (tagName.equals(FILTER_ELEMENT)) {
@@ -20,26 +20,26 @@ package dk.cego.spritemapper.guillotine;
 import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.Sprite;
 import dk.cego.spritemapper.SpriteLayouter;
-import dk.cego.spritemapper.util.FreeSpaceComparator;
+import dk.cego.spritemapper.util.FirstFitChooser;
 import dk.cego.spritemapper.util.FreeSpaceChooser;
-import dk.cego.spritemapper.util.SpriteCollections;
-import dk.cego.spritemapper.util.SpriteFitFilter;
+import dk.cego.spritemapper.util.FreeSpaceList;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Collections;
 
 public class GuillotineLayouter extends SpriteLayouter {
 	private final static int MAX_HEIGHT = 1024 * 1024 * 1024;
 	
     private FreeSpaceChooser freeSpaceChooser = null;
     private FreeSpaceSplitStrategy freeSpaceSplitter = null;
+    private boolean mergeFreeSpaces = false;
 
     private String nullOrClass(Object o) {
         return o == null ? "null" : o.getClass().getSimpleName();
     }
 
     public String toString() {
-        return "Guillotine(" + nullOrClass(freeSpaceChooser) + "," + nullOrClass(freeSpaceSplitter) + ")";
+        return "Guillotine(" + nullOrClass(freeSpaceChooser) + "," + nullOrClass(freeSpaceSplitter) +
+                (mergeFreeSpaces ? ",merge" : "") + ")";
     }
 
     public GuillotineLayouter setFreeSpaceChooser(FreeSpaceChooser chooser) {
@@ -52,6 +52,14 @@ public class GuillotineLayouter extends SpriteLayouter {
         return this;
     }
 
+    /**
+     * Merge adjacent free spaces with a common edge after each placement.
+     */
+    public GuillotineLayouter setMergeFreeSpaces(boolean merge) {
+        this.mergeFreeSpaces = merge;
+        return this;
+    }
+
     public int layout(int maxWidth, int maxHeight, List<Sprite> sprites) {
     	if (sprites.isEmpty()) {
     		return 0;
@@ -62,10 +70,10 @@ public class GuillotineLayouter extends SpriteLayouter {
         }
         
         int spacing = getSpacing();
-        List<Rectangle> freeSpaces = new ArrayList<Rectangle>();
-        freeSpaces.add(new Rectangle(0, 0, maxWidth, maxHeight));
-        FreeSpaceComparator comparator = new FreeSpaceComparator(freeSpaceChooser);
+        FreeSpaceList freeSpaces = new FreeSpaceList();
+        FreeSpaceChooser chooser = freeSpaceChooser == null ? new FirstFitChooser() : freeSpaceChooser;
 
+        Rectangle chosenSpace = new Rectangle(0, 0, 0, 0);
         Rectangle newFree[] = new Rectangle[2];
         List<Sprite> current = new ArrayList<Sprite>(sprites);
         List<Sprite> remaining = new ArrayList<Sprite>(sprites.size());
@@ -76,23 +84,22 @@ public class GuillotineLayouter extends SpriteLayouter {
         	layoutedCount = 0;
         	remaining.clear();
         	freeSpaces.clear();
-        	freeSpaces.add(new Rectangle(0, 0, maxWidth, maxHeight));
+        	freeSpaces.add(0, 0, maxWidth, maxHeight);
         	
         	for (Sprite s : current) {
-        		//Find all spaces that the current sprite fits into
-                List<Rectangle> fits = SpriteCollections.filter(freeSpaces, new SpriteFitFilter(s));
-                if (fits.size() == 0) {
+        		//Choose among all spaces that the current sprite fits into
+                int chosen = chooser.choose(freeSpaces, s);
+                if (chosen < 0) {
                     remaining.add(s);
                     continue;
                 }
 
-                //Order the list so that the preferred space is in the first location
-                comparator.setCurrentSprite(s);
-                Collections.sort(fits, comparator);
-
-                //Remove it from our lists
-                Rectangle chosenSpace = fits.get(0);
-                freeSpaces.remove(chosenSpace);
+                //Remove it from our list
+                chosenSpace.x = freeSpaces.x[chosen];
+                chosenSpace.y = freeSpaces.y[chosen];
+                chosenSpace.w = freeSpaces.w[chosen];
+                chosenSpace.h = freeSpaces.h[chosen];
+                freeSpaces.remove(chosen);
 
                 //If the sprite does not fit the chosen space with its current rotation...
                 if (s.fits(chosenSpace) == false) {
@@ -105,10 +112,9 @@ public class GuillotineLayouter extends SpriteLayouter {
                 s.y = chosenSpace.y;
                 s.mapNumber = mapNumber;
                 layoutedCount++;
+                placed(s);
 
                 //Choose how to split the free space
-                newFree[0] = null;
-                newFree[1] = null;
                 FreeSpaceSplitStrategy.Split split = freeSpaceSplitter == null ? 
                         FreeSpaceSplitStrategy.Split.HORIZONTALLY : 
                         freeSpaceSplitter.chooseSplit(chosenSpace, s, spacing);
@@ -118,10 +124,14 @@ public class GuillotineLayouter extends SpriteLayouter {
                     splitVertically(newFree, chosenSpace, s, spacing);
                 }
 
-                //Add the ones that have an area larger than 0
+                //Add the ones that are not empty
                 for (Rectangle r : newFree) {
-                    if (r.area() > 0) {
-                        freeSpaces.add(r);
+                    if (!r.isEmpty()) {
+                        int index = freeSpaces.add(r.x, r.y, r.w, r.h);
+
+                        if (mergeFreeSpaces) {
+                            merge(freeSpaces, index);
+                        }
                     }
                 }
             }
@@ -139,6 +149,58 @@ public class GuillotineLayouter extends SpriteLayouter {
         return mapNumber;
     }
 
+    /**
+     * Merge free space at index with free spaces sharing a whole edge with it, as in
+     * Jylanki's rectangle merge. The merged space takes the lower index, and is merged
+     * again until no neighbour shares an edge with it.
+     */
+    private static void merge(FreeSpaceList spaces, int index) {
+        int[] xs = spaces.x, ys = spaces.y, ws = spaces.w, hs = spaces.h;
+
+        for (int j = 0; j < spaces.size(); j++) {
+            if (j == index) {
+                continue;
+            }
+
+            if (xs[j] == xs[index] && ws[j] == ws[index] &&
+                (ys[j] + hs[j] == ys[index] || ys[index] + hs[index] == ys[j])) {
+                ys[j] = Math.min(ys[j], ys[index]);
+                hs[j] += hs[index];
+            } else if (ys[j] == ys[index] && hs[j] == hs[index] &&
+                (xs[j] + ws[j] == xs[index] || xs[index] + ws[index] == xs[j])) {
+                xs[j] = Math.min(xs[j], xs[index]);
+                ws[j] += ws[index];
+            } else {
+                continue;
+            }
+
+            // keep merged space at the lower index.
+            if (index < j) {
+                xs[index] = xs[j]; ys[index] = ys[j]; ws[index] = ws[j]; hs[index] = hs[j];
+                spaces.remove(j);
+            } else {
+                spaces.remove(index);
+                index = j;
+            }
+
+            j = -1;
+        }
+    }
+
+    /**
+     * Difference between areas of the two spaces left by {@link #splitVertically}.
+     */
+    public static int verticalSplitAreaDifference(Rectangle r, Sprite s, int spacing) {
+        return Math.abs((r.w - s.w - spacing) * r.h - (s.w + spacing) * (r.h - s.h - spacing));
+    }
+
+    /**
+     * Difference between areas of the two spaces left by {@link #splitHorizontally}.
+     */
+    public static int horizontalSplitAreaDifference(Rectangle r, Sprite s, int spacing) {
+        return Math.abs((r.w - s.w - spacing) * (s.h + spacing) - r.w * (r.h - s.h - spacing));
+    }
+
     public static void splitVertically(Rectangle rects[], Rectangle r, Sprite s, int spacing) {
         if (rects[0] == null) {
             rects[0] = new Rectangle(0,0,0,0);
@@ -22,18 +22,9 @@ import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.Sprite;
 
 public class MinimumAreaDifferenceSplitStrategy implements FreeSpaceSplitStrategy {
-    private Rectangle areas[];
-
-    public MinimumAreaDifferenceSplitStrategy() {
-        areas = new Rectangle[2];
-    }
-
     public FreeSpaceSplitStrategy.Split chooseSplit(Rectangle r, Sprite s, int spacing) {
-        GuillotineLayouter.splitVertically(areas, r, s, spacing);
-        int verticalSplitAreaDiff = Math.abs(areas[0].area() - areas[1].area());
-
-        GuillotineLayouter.splitHorizontally(areas, r, s, spacing);
-        int horizontalSplitAreaDiff = Math.abs(areas[0].area() - areas[1].area());
+        int verticalSplitAreaDiff = GuillotineLayouter.verticalSplitAreaDifference(r, s, spacing);
+        int horizontalSplitAreaDiff = GuillotineLayouter.horizontalSplitAreaDifference(r, s, spacing);
 
         return verticalSplitAreaDiff < horizontalSplitAreaDiff ? FreeSpaceSplitStrategy.Split.VERTICALLY : FreeSpaceSplitStrategy.Split.HORIZONTALLY;
     }
@@ -30,6 +30,13 @@ import dk.cego.spritemapper.OptimalLayouter;
  */
 public class OptimalGuillotineLayouter extends OptimalLayouter {
     public OptimalGuillotineLayouter() {
+        this(false);
+    }
+
+    /**
+     * @param mergeFreeSpaces merge adjacent free spaces in all configurations.
+     */
+    public OptimalGuillotineLayouter(boolean mergeFreeSpaces) {
         FreeSpaceChooser freeSpaceChoosers[] = new FreeSpaceChooser[] {
             new BestFitChooser(),
             new BestShortSideChooser(),
@@ -47,7 +54,8 @@ public class OptimalGuillotineLayouter extends OptimalLayouter {
 
         for (FreeSpaceChooser chooser : freeSpaceChoosers) {
             for (FreeSpaceSplitStrategy splitStrategy : splitStrategies) {
-                add(new GuillotineLayouter().setFreeSpaceChooser(chooser).setFreeSpaceSplitStrategy(splitStrategy));
+                add(new GuillotineLayouter().setFreeSpaceChooser(chooser).setFreeSpaceSplitStrategy(splitStrategy)
+                        .setMergeFreeSpaces(mergeFreeSpaces));
             }
         }
     }
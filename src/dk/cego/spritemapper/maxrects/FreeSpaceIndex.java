@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.maxrects;
+
+import java.util.Arrays;
+
+import dk.cego.spritemapper.Rectangle;
+import dk.cego.spritemapper.util.FreeSpaceList;
+
+/**
+ * Free spaces in a sprite map with a spatial index.
+ * 
+ * Sprite map is divided into vertical strips. A free space is registered in all strips it overlaps,
+ * so that queries only visit free spaces in strips covered by query rectangle.
+ * Free spaces are kept in the order they are added. Removed free spaces are only marked, and
+ * compacted away the next time the free space list is needed.
+ */
+public class FreeSpaceIndex {
+	private final static int MIN_STRIP_WIDTH = 16;
+	private final static int MAX_STRIPS = 64;
+	
+	private FreeSpaceList spaces = new FreeSpaceList();
+	private boolean[] removed = new boolean[0];
+	private int[] stamps = new int[0];
+	private int[] indexes = new int[0];
+	private int dead = 0;
+	private int stamp = 0;
+	
+	private int stripWidth;
+	private int[][] strips;
+	private int[] stripSizes;
+	
+	private int[] colliding = new int[16];
+	private int[] inside = new int[16];
+	
+	/**
+	 * @param width width of sprite map.
+	 */
+	public FreeSpaceIndex(int width) {
+		int count = Math.max(1, Math.min(MAX_STRIPS, width / MIN_STRIP_WIDTH));
+		stripWidth = (width + count - 1) / count;
+		strips = new int[count][16];
+		stripSizes = new int[count];
+	}
+	
+	public void clear() {
+		Arrays.fill(stripSizes, 0);
+		Arrays.fill(removed, false);
+		spaces.clear();
+		dead = 0;
+	}
+	
+	/**
+	 * Get all free spaces in the order they are added. Don't modify the list.
+	 * @return
+	 */
+	public FreeSpaceList getSpaces() {
+		if (dead > 0) {
+			spaces.removeAll(removed, indexes);
+			Arrays.fill(removed, 0, spaces.size() + dead, false);
+			dead = 0;
+			
+			for (int i = 0; i < strips.length; i++) {
+				int[] strip = strips[i];
+				int size = 0;
+				
+				for (int j = 0, n = stripSizes[i]; j < n; j++) {
+					int index = indexes[strip[j]];
+					
+					if (index >= 0) {
+						strip[size++] = index;
+					}
+				}
+				
+				stripSizes[i] = size;
+			}
+		}
+		
+		return spaces;
+	}
+	
+	public void add(int x, int y, int w, int h) {
+		int index = spaces.add(x, y, w, h);
+		
+		if (spaces.capacity() > removed.length) {
+			int capacity = spaces.capacity();
+			removed = Arrays.copyOf(removed, capacity);
+			stamps = Arrays.copyOf(stamps, capacity);
+			indexes = Arrays.copyOf(indexes, capacity);
+		}
+		
+		for (int i = first(x), last = last(x, w); i <= last; i++) {
+			if (stripSizes[i] == strips[i].length) {
+				strips[i] = Arrays.copyOf(strips[i], stripSizes[i] * 2);
+			}
+			
+			strips[i][stripSizes[i]++] = index;
+		}
+	}
+	
+	/**
+	 * Add a free space unless it's inside another one, and remove all free spaces inside it.
+	 * If free spaces don't contain each other before adding, they still don't after adding.
+	 * A free space equal to the new one is replaced by it.
+	 */
+	public void addMaximal(int x, int y, int w, int h) {
+		int[] xs = spaces.x, ys = spaces.y, ws = spaces.w, hs = spaces.h;
+		int right = x + w, bottom = y + h;
+		int count = 0;
+		stamp++;
+		
+		for (int i = first(x), last = last(x, w); i <= last; i++) {
+			int[] strip = strips[i];
+			
+			for (int j = 0, n = stripSizes[i]; j < n; j++) {
+				int e = strip[j];
+				
+				if (removed[e] || stamps[e] == stamp) {
+					continue;
+				}
+				
+				stamps[e] = stamp;
+				int eRight = xs[e] + ws[e], eBottom = ys[e] + hs[e];
+				
+				if (xs[e] >= x && eRight <= right && ys[e] >= y && eBottom <= bottom) {
+					if (count == inside.length) {
+						inside = Arrays.copyOf(inside, count * 2);
+					}
+					
+					inside[count++] = e;
+				} else if (x >= xs[e] && right <= eRight && y >= ys[e] && bottom <= eBottom) {
+					// new free space is inside e, so it cannot contain any other free space.
+					return;
+				}
+			}
+		}
+		
+		for (int i = 0; i < count; i++) {
+			remove(inside[i]);
+		}
+		
+		add(x, y, w, h);
+	}
+	
+	/**
+	 * Mark free space at index as removed. Indexes don't change until {@link #getSpaces()} is called.
+	 * @param index
+	 */
+	public void remove(int index) {
+		if (!removed[index]) {
+			removed[index] = true;
+			dead++;
+		}
+	}
+	
+	/**
+	 * Find all free spaces colliding with area.
+	 * @param area
+	 * @return number of colliding free spaces. Their indexes are in {@link #getColliding()}
+	 * in the order they are added.
+	 */
+	public int findColliding(Rectangle area) {
+		int[] xs = spaces.x, ys = spaces.y, ws = spaces.w, hs = spaces.h;
+		int count = 0;
+		
+		// a free space in several strips is only checked once.
+		stamp++;
+		
+		for (int i = first(area.x), last = last(area.x, area.w); i <= last; i++) {
+			int[] strip = strips[i];
+			
+			for (int j = 0, n = stripSizes[i]; j < n; j++) {
+				int e = strip[j];
+				
+				if (removed[e] || stamps[e] == stamp) {
+					continue;
+				}
+				
+				stamps[e] = stamp;
+				
+				if (area.right() > xs[e] && area.left() < xs[e] + ws[e] &&
+					area.bottom() > ys[e] && area.top() < ys[e] + hs[e]) {
+					if (count == colliding.length) {
+						colliding = Arrays.copyOf(colliding, count * 2);
+					}
+					
+					colliding[count++] = e;
+				}
+			}
+		}
+		
+		Arrays.sort(colliding, 0, count);
+		return count;
+	}
+	
+	/**
+	 * Result of last {@link #findColliding(Rectangle)}.
+	 */
+	public int[] getColliding() {
+		return colliding;
+	}
+	
+	private int first(int x) {
+		return Math.max(0, Math.min(strips.length - 1, x / stripWidth));
+	}
+	
+	/**
+	 * Last strip overlapped by a free space. A rectangle without positive width can only collide with
+	 * rectangles covering column x, so it's only in the first strip.
+	 */
+	private int last(int x, int w) {
+		return Math.max(first(x), Math.min(strips.length - 1, (x + w - 1) / stripWidth));
+	}
+}
@@ -17,16 +17,12 @@
  */
 package dk.cego.spritemapper.maxrects;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
+import dk.cego.spritemapper.util.FirstFitChooser;
 import dk.cego.spritemapper.util.FreeSpaceChooser;
-import dk.cego.spritemapper.util.FreeSpaceComparator;
-import dk.cego.spritemapper.util.SpriteCollections;
-import dk.cego.spritemapper.util.SpriteFitFilter;
-import dk.cego.spritemapper.util.RectangleCollisionFilter;
+import dk.cego.spritemapper.util.FreeSpaceList;
 import dk.cego.spritemapper.Sprite;
-import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.SpriteLayouter;
 
 public class MaxRectsLayouter extends SpriteLayouter {
@@ -55,8 +51,8 @@ public class MaxRectsLayouter extends SpriteLayouter {
             maxHeight = MAX_HEIGHT;
         }
 
-        List<Rectangle> freeSpaces = new ArrayList<Rectangle>();
-        FreeSpaceComparator comparator = new FreeSpaceComparator(freeSpaceChooser);
+        FreeSpaceIndex index = new FreeSpaceIndex(maxWidth);
+        FreeSpaceChooser chooser = freeSpaceChooser == null ? new FirstFitChooser() : freeSpaceChooser;
 
         List<Sprite> current = new ArrayList<Sprite>(sprites);
         List<Sprite> remaining = new ArrayList<Sprite>(sprites.size());
@@ -66,54 +62,44 @@ public class MaxRectsLayouter extends SpriteLayouter {
         for (mapNumber = 0; !current.isEmpty(); mapNumber++) {
         	layoutedCount = 0;
         	remaining.clear();
-        	freeSpaces.clear();
-        	freeSpaces.add(new Rectangle(0, 0, maxWidth, maxHeight));
+        	index.clear();
+        	index.add(0, 0, maxWidth, maxHeight);
         	
         	for (Sprite s : current) {
-                List<Rectangle> fits = SpriteCollections.filter(freeSpaces, new SpriteFitFilter(s));
+                FreeSpaceList spaces = index.getSpaces();
+                int chosen = chooser.choose(spaces, s);
                 
                 // cannot find suitable space in current rectangle? add sprite to remaining for next round.
-                if (fits.size() == 0) {
+                if (chosen < 0) {
                 	remaining.add(s);
                     continue;
                 }
 
-                //Order the list so that the preferred space is in the first location
-                comparator.setCurrentSprite(s);
-                Collections.sort(fits, comparator);
-                Rectangle chosenSpace = fits.get(0);
-
                 //If the sprite does not fit the chosen space with its current rotation...
-                if (s.fits(chosenSpace) == false) {
+                if (spaces.fits(chosen, s.w, s.h) == false) {
                     //...then tilt it
                     s.rotate();
                 }
 
                 //Place the sprite into the chosen free space
-                s.x = chosenSpace.x;
-                s.y = chosenSpace.y;
+                s.x = spaces.x[chosen];
+                s.y = spaces.y[chosen];
                 s.mapNumber = mapNumber;
                 layoutedCount++;
+                placed(s);
 
                 //Now find and remove all spaces that collide with the sprite
-                List<Rectangle> collidingRects = SpriteCollections.remove(freeSpaces, new RectangleCollisionFilter(s));
+                int collidingCount = index.findColliding(s);
+                int[] colliding = index.getColliding();
 
-                //Slice up the colliding rectangles and add the slices to the free list
-                for (Rectangle r : collidingRects) {
-                    List<Rectangle> sliced = slice(r, s);
-                    SpriteCollections.append(freeSpaces, sliced);
+                for (int i = 0; i < collidingCount; i++) {
+                    index.remove(colliding[i]);
                 }
 
-                //Now remove all spaces that are completely covered by another space
-                for (int i = freeSpaces.size() - 1; i >= 0; i--) {
-                    Rectangle cur = freeSpaces.get(i);
-                    for (int j = freeSpaces.size() - 1; j >= 0; j--) {
-                        Rectangle subject = freeSpaces.get(j);
-                        if (subject.inside(cur) && subject != cur) {
-                            freeSpaces.remove(subject);
-                            if (j < i) i--;
-                        }
-                    }
+                //Slice up the colliding rectangles and add the slices to the free list.
+                //Spaces covered by another space are dropped, so only the slices need to be checked.
+                for (int i = 0; i < collidingCount; i++) {
+                    slice(index, spaces, colliding[i], s);
                 }
             }
         	
@@ -130,31 +116,23 @@ public class MaxRectsLayouter extends SpriteLayouter {
         return mapNumber;
     }
 
-    private List<Rectangle> slice(Rectangle r, Sprite s) {
-        List<Rectangle> result = new ArrayList<Rectangle>(4);
-
-        Rectangle re;
-        if ((re = sliceNorth(r, s)).area() > 0) result.add(re);
-        if ((re = sliceSouth(r, s)).area() > 0) result.add(re);
-        if ((re = sliceEast(r, s)).area() > 0) result.add(re);
-        if ((re = sliceWest(r, s)).area() > 0) result.add(re);
-
-        return result;
-    }
-
-    private Rectangle sliceNorth(Rectangle r, Sprite s) {
-        return new Rectangle(r.x, r.y, r.w, s.y - r.y);
+    /**
+     * Add the parts of free space r north, south, east and west of the sprite.
+     * Removed free spaces keep their index until the free space list is compacted.
+     */
+    private void slice(FreeSpaceIndex index, FreeSpaceList spaces, int r, Sprite s) {
+        int x = spaces.x[r], y = spaces.y[r], w = spaces.w[r], h = spaces.h[r];
+        int spacing = getSpacing();
+
+        addSlice(index, x, y, w, s.y - y);
+        addSlice(index, x, s.bottom() + spacing, w, y + h - s.bottom() - spacing);
+        addSlice(index, s.right() + spacing, y, x + w - s.right() - spacing, h);
+        addSlice(index, x, y, s.x - x, h);
     }
 
-    private Rectangle sliceSouth(Rectangle r, Sprite s) {
-        return new Rectangle(r.x, s.bottom() + getSpacing(), r.w, r.bottom() - s.bottom() - getSpacing());
-    }
-
-    private Rectangle sliceWest(Rectangle r, Sprite s) {
-        return new Rectangle(r.x, r.y, s.x - r.x, r.h);
-    }
-
-    private Rectangle sliceEast(Rectangle r, Sprite s) {
-        return new Rectangle(s.right() + getSpacing(), r.y, r.right() - s.right() - getSpacing(), r.h);
+    private void addSlice(FreeSpaceIndex index, int x, int y, int w, int h) {
+        if (w > 0 && h > 0) {
+            index.addMaximal(x, y, w, h);
+        }
     }
 }
@@ -0,0 +1,495 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.png;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import dk.cego.spritemapper.util.ArgbImages;
+
+/**
+ * Minimal PNG decoder writing pixels straight into a <code>TYPE_INT_ARGB</code> image.
+ * 
+ * Only non-interlaced 8-bit RGB, 8-bit RGBA and indexed images are handled, which covers
+ * almost all sprites. For any other kind of PNG, or any file which is not a PNG at all,
+ * <code>null</code> is returned and caller should fall back to <code>ImageIO</code>.
+ * Decoded pixels are exactly the same as what <code>ImageIO</code> produces.
+ */
+public class PngDecoder {
+	private static final byte[] SIGNATURE = {(byte)137, 80, 78, 71, 13, 10, 26, 10};
+	private static final int HEADER_SIZE = 33;
+	
+	private static final int IHDR = 0x49484452;
+	private static final int PLTE = 0x504c5445;
+	private static final int TRNS = 0x74524e53;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454e44;
+	
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_PALETTE = 3;
+	private static final int COLOR_RGB_ALPHA = 6;
+	
+	private byte[] data;
+	private int end;
+	
+	private int width;
+	private int height;
+	private int bitDepth;
+	private int colorType;
+	private int[] palette;
+	private byte[] paletteAlpha;
+	private int paletteEntries;
+	
+	private int[] idatOffsets = new int[16];
+	private int[] idatLengths = new int[16];
+	private int idatCount;
+	
+	private PngDecoder(byte[] data, int offset, int length) {
+		this.data = data;
+		this.end = offset + length;
+	}
+	
+	/**
+	 * Decode a PNG file.
+	 * @param file
+	 * @return decoded image or null if file is not a PNG supported by this decoder.
+	 * @throws IOException
+	 */
+	public static BufferedImage decode(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading.
+			}
+			
+			buffer.flip();
+			return decode(buffer);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Decode PNG data between buffer's position and limit.
+	 * @param buffer
+	 * @return decoded image or null if data is not a PNG supported by this decoder.
+	 * @throws IOException
+	 */
+	public static BufferedImage decode(ByteBuffer buffer) throws IOException {
+		PngDecoder decoder;
+		
+		if (buffer.hasArray()) {
+			decoder = new PngDecoder(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			decoder.parse(buffer.arrayOffset() + buffer.position());
+		} else {
+			byte[] copy = new byte[buffer.remaining()];
+			buffer.duplicate().get(copy);
+			decoder = new PngDecoder(copy, 0, copy.length);
+			decoder.parse(0);
+		}
+		
+		if (!decoder.isSupported()) {
+			return null;
+		}
+		
+		return decoder.decodePixels();
+	}
+	
+	/**
+	 * Read image size from PNG header.
+	 * @param file
+	 * @return image size or null if file is not a PNG.
+	 * @throws IOException
+	 */
+	public static Dimension probe(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		
+		try {
+			return probe(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Read image size from PNG header. Only header bytes are consumed from the stream.
+	 * @param in
+	 * @return image size or null if stream is not a PNG.
+	 * @throws IOException
+	 */
+	public static Dimension probe(InputStream in) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		int n = 0;
+		
+		while (n < header.length) {
+			int read = in.read(header, n, header.length - n);
+			
+			if (read < 0) {
+				return null;
+			}
+			
+			n += read;
+		}
+		
+		if (!hasSignature(header, 0) || readInt(header, 12) != IHDR) {
+			return null;
+		}
+		
+		return new Dimension(readInt(header, 16), readInt(header, 20));
+	}
+	
+	private static boolean hasSignature(byte[] data, int offset) {
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (data[offset + i] != SIGNATURE[i]) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) |
+			((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+	}
+	
+	/**
+	 * Walk through all chunks and remember everything needed to decode pixels.
+	 * Ancillary chunks other than tRNS are skipped. They don't change decoded pixels.
+	 * @param offset
+	 * @throws IOException
+	 */
+	private void parse(int offset) throws IOException {
+		if (end - offset < HEADER_SIZE || !hasSignature(data, offset)) {
+			colorType = -1;
+			return;
+		}
+		
+		int pos = offset + SIGNATURE.length;
+		
+		while (pos + 8 <= end) {
+			int length = readInt(data, pos);
+			int type = readInt(data, pos + 4);
+			int chunk = pos + 8;
+			
+			if (length < 0 || chunk + length > end) {
+				throw new IOException("Corrupted PNG chunk.");
+			}
+			
+			switch (type) {
+			case IHDR:
+				if (length < 13) {
+					throw new IOException("Corrupted PNG header.");
+				}
+				
+				width = readInt(data, chunk);
+				height = readInt(data, chunk + 4);
+				bitDepth = data[chunk + 8] & 0xff;
+				colorType = data[chunk + 9] & 0xff;
+				
+				// compression, filter and interlace method must all be 0.
+				if (data[chunk + 10] != 0 || data[chunk + 11] != 0 || data[chunk + 12] != 0) {
+					colorType = -1;
+				}
+				
+				break;
+				
+			case PLTE:
+				parsePalette(chunk, length);
+				break;
+				
+			case TRNS:
+				if (colorType != COLOR_PALETTE) {
+					// transparent color for rgb images is left to ImageIO.
+					colorType = -1;
+				} else if (palette != null) {
+					paletteAlpha = new byte[Math.min(length, paletteEntries)];
+					System.arraycopy(data, chunk, paletteAlpha, 0, paletteAlpha.length);
+				}
+				
+				break;
+				
+			case IDAT:
+				if (idatCount == idatOffsets.length) {
+					int[] offsets = new int[idatCount * 2];
+					int[] lengths = new int[idatCount * 2];
+					System.arraycopy(idatOffsets, 0, offsets, 0, idatCount);
+					System.arraycopy(idatLengths, 0, lengths, 0, idatCount);
+					idatOffsets = offsets;
+					idatLengths = lengths;
+				}
+				
+				idatOffsets[idatCount] = chunk;
+				idatLengths[idatCount] = length;
+				idatCount++;
+				break;
+				
+			case IEND:
+				return;
+			}
+			
+			// skip chunk data and crc.
+			pos = chunk + length + 4;
+		}
+	}
+	
+	/**
+	 * Palette is built the same way as ImageIO does, so that out-of-range indexes
+	 * map to the same colors.
+	 * @param chunk
+	 * @param length
+	 */
+	private void parsePalette(int chunk, int length) {
+		if (colorType != COLOR_PALETTE || bitDepth > 8) {
+			return;
+		}
+		
+		int maxEntries = 1 << bitDepth;
+		int numEntries = Math.min(length / 3, maxEntries);
+		
+		// ImageIO rounds palette size up to 2, 4, 16 or 256 with black entries.
+		if (numEntries > 16) {
+			paletteEntries = 256;
+		} else if (numEntries > 4) {
+			paletteEntries = 16;
+		} else if (numEntries > 2) {
+			paletteEntries = 4;
+		} else {
+			paletteEntries = 2;
+		}
+		
+		palette = new int[Math.max(paletteEntries, maxEntries)];
+		
+		for (int i = 0; i < numEntries; i++) {
+			int p = chunk + i * 3;
+			palette[i] = ((data[p] & 0xff) << 16) | ((data[p + 1] & 0xff) << 8) | (data[p + 2] & 0xff);
+		}
+		
+		// then it's extended to 2^bitDepth entries with the last one.
+		for (int i = paletteEntries; i < palette.length; i++) {
+			palette[i] = palette[paletteEntries - 1];
+		}
+	}
+	
+	private boolean isSupported() {
+		if (width <= 0 || height <= 0 || (long)width * height > Integer.MAX_VALUE || idatCount == 0) {
+			return false;
+		}
+		
+		switch (colorType) {
+		case COLOR_RGB:
+		case COLOR_RGB_ALPHA:
+			return bitDepth == 8;
+			
+		case COLOR_PALETTE:
+			return palette != null && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8);
+			
+		default:
+			return false;
+		}
+	}
+	
+	private BufferedImage decodePixels() throws IOException {
+		int channels = colorType == COLOR_RGB ? 3 : colorType == COLOR_RGB_ALPHA ? 4 : 1;
+		int bitsPerPixel = channels * bitDepth;
+		int bpp = Math.max(1, bitsPerPixel / 8);
+		int rowBytes = (int)(((long)width * bitsPerPixel + 7) / 8);
+		
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ArgbImages.data(image);
+		int[] colors = colorType == COLOR_PALETTE ? paletteColors() : null;
+		
+		// byte 0 of each row is filter type.
+		byte[] current = new byte[rowBytes + 1];
+		byte[] previous = new byte[rowBytes + 1];
+		Inflater inflater = new Inflater();
+		int nextIdat = 0;
+		
+		try {
+			for (int y = 0; y < height; y++) {
+				nextIdat = inflate(inflater, current, nextIdat);
+				unfilter(current, previous, rowBytes, bpp);
+				
+				int dst = y * width;
+				
+				switch (colorType) {
+				case COLOR_RGB:
+					for (int x = 0, p = 1; x < width; x++, p += 3) {
+						pixels[dst + x] = 0xff000000 | ((current[p] & 0xff) << 16) |
+							((current[p + 1] & 0xff) << 8) | (current[p + 2] & 0xff);
+					}
+					
+					break;
+					
+				case COLOR_RGB_ALPHA:
+					for (int x = 0, p = 1; x < width; x++, p += 4) {
+						pixels[dst + x] = ((current[p + 3] & 0xff) << 24) | ((current[p] & 0xff) << 16) |
+							((current[p + 1] & 0xff) << 8) | (current[p + 2] & 0xff);
+					}
+					
+					break;
+					
+				default:
+					unpackIndexes(current, colors, pixels, dst);
+				}
+				
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted PNG image data. " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		
+		return image;
+	}
+	
+	private int[] paletteColors() {
+		int[] colors = new int[palette.length];
+		
+		for (int i = 0; i < colors.length; i++) {
+			int alpha = paletteAlpha != null && i < paletteAlpha.length ? paletteAlpha[i] & 0xff : 0xff;
+			colors[i] = (alpha << 24) | palette[i];
+		}
+		
+		return colors;
+	}
+	
+	private void unpackIndexes(byte[] row, int[] colors, int[] pixels, int dst) {
+		if (bitDepth == 8) {
+			for (int x = 0; x < width; x++) {
+				pixels[dst + x] = colors[row[x + 1] & 0xff];
+			}
+			
+			return;
+		}
+		
+		int perByte = 8 / bitDepth;
+		int mask = (1 << bitDepth) - 1;
+		
+		for (int x = 0; x < width; x++) {
+			int b = row[1 + x / perByte] & 0xff;
+			int shift = 8 - bitDepth * (x % perByte + 1);
+			pixels[dst + x] = colors[(b >> shift) & mask];
+		}
+	}
+	
+	/**
+	 * Inflate exactly one row, feeding IDAT chunks on demand.
+	 * @return index of next IDAT chunk to feed.
+	 */
+	private int inflate(Inflater inflater, byte[] row, int nextIdat) throws IOException, DataFormatException {
+		int n = 0;
+		
+		while (n < row.length) {
+			int inflated = inflater.inflate(row, n, row.length - n);
+			n += inflated;
+			
+			if (inflated == 0) {
+				if (inflater.finished() || inflater.needsDictionary()) {
+					throw new IOException("Truncated PNG image data.");
+				}
+				
+				if (inflater.needsInput()) {
+					if (nextIdat >= idatCount) {
+						throw new IOException("Truncated PNG image data.");
+					}
+					
+					inflater.setInput(data, idatOffsets[nextIdat], idatLengths[nextIdat]);
+					nextIdat++;
+				}
+			}
+		}
+		
+		return nextIdat;
+	}
+	
+	private static void unfilter(byte[] row, byte[] previous, int rowBytes, int bpp) throws IOException {
+		int filter = row[0];
+		
+		switch (filter) {
+		case 0:
+			break;
+			
+		case 1:
+			for (int i = 1 + bpp; i <= rowBytes; i++) {
+				row[i] += row[i - bpp];
+			}
+			
+			break;
+			
+		case 2:
+			for (int i = 1; i <= rowBytes; i++) {
+				row[i] += previous[i];
+			}
+			
+			break;
+			
+		case 3:
+			for (int i = 1; i <= rowBytes; i++) {
+				int left = i > bpp ? row[i - bpp] & 0xff : 0;
+				row[i] += (left + (previous[i] & 0xff)) >> 1;
+			}
+			
+			break;
+			
+		case 4:
+			for (int i = 1; i <= rowBytes; i++) {
+				int a = i > bpp ? row[i - bpp] & 0xff : 0;
+				int b = previous[i] & 0xff;
+				int c = i > bpp ? previous[i - bpp] & 0xff : 0;
+				int p = a + b - c;
+				int pa = Math.abs(p - a);
+				int pb = Math.abs(p - b);
+				int pc = Math.abs(p - c);
+				
+				if (pa <= pb && pa <= pc) {
+					row[i] += a;
+				} else if (pb <= pc) {
+					row[i] += b;
+				} else {
+					row[i] += c;
+				}
+			}
+			
+			break;
+			
+		default:
+			throw new IOException("Unknown PNG filter type. Type: " + filter);
+		}
+	}
+}
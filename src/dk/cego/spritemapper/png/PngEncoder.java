@@ -0,0 +1,507 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.png;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import dk.cego.spritemapper.util.ArgbImages;
+
+/**
+ * Streaming PNG encoder.
+ * 
+ * Rows are split into chunks of fixed size. Every chunk is filtered and deflated independently,
+ * with the tail of its previous chunk as preset dictionary, and compressed chunks are concatenated
+ * into one zlib stream. Chunks can be compressed by several threads. As chunk size doesn't depend
+ * on number of threads, same image always produces same file.
+ */
+public class PngEncoder {
+	public static final int FILTER_NONE = 0;
+	public static final int FILTER_SUB = 1;
+	public static final int FILTER_UP = 2;
+	public static final int FILTER_AVERAGE = 3;
+	public static final int FILTER_PAETH = 4;
+	public static final int FILTER_ADAPTIVE = 5;
+	
+	private static final byte[] SIGNATURE = {(byte)137, 80, 78, 71, 13, 10, 26, 10};
+	private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+	private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+	private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+	
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_RGB_ALPHA = 6;
+	
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	
+	// same default level as ImageIO's PNG writer.
+	private int compressionLevel = 4;
+	// ImageIO doesn't filter true color images either. it's much faster and the size is nearly the same.
+	private int filter = FILTER_NONE;
+	private int threads = 1;
+	
+	public PngEncoder setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < 0 || compressionLevel > 9) {
+			throw new IllegalArgumentException("Compression level must be between 0 and 9. Level: " + compressionLevel);
+		}
+		
+		this.compressionLevel = compressionLevel;
+		return this;
+	}
+	
+	public PngEncoder setFilter(int filter) {
+		if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE) {
+			throw new IllegalArgumentException("Unknown PNG filter. Filter: " + filter);
+		}
+		
+		this.filter = filter;
+		return this;
+	}
+	
+	public PngEncoder setThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+	
+	/**
+	 * Parse filter name used in options.
+	 * @param name
+	 * @return filter or -1 if name is unknown.
+	 */
+	public static int parseFilter(String name) {
+		String[] names = {"none", "sub", "up", "average", "paeth", "adaptive"};
+		
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	public void write(BufferedImage image, File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		
+		try {
+			write(image, out);
+		} finally {
+			out.close();
+		}
+	}
+	
+	public void write(BufferedImage image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean alpha = image.getType() != BufferedImage.TYPE_INT_RGB;
+		
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8;
+		header[9] = (byte)(alpha ? COLOR_RGB_ALPHA : COLOR_RGB);
+		
+		out.write(SIGNATURE);
+		writeChunk(out, IHDR, header, 0, header.length);
+		
+		RowReader rows = new RowReader(image, alpha);
+		int rowsPerChunk = Math.max(1, CHUNK_SIZE / (rows.rowBytes + 1));
+		
+		// zlib header. see RFC 1950.
+		int cmf = 0x78;
+		int flg = (compressionLevel < 2 ? 0 : compressionLevel < 6 ? 1 : compressionLevel == 6 ? 2 : 3) << 6;
+		flg += 31 - (cmf * 256 + flg) % 31;
+		
+		Adler32 adler = new Adler32();
+		byte[] pending = {(byte)cmf, (byte)flg};
+		
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		LinkedList<Future<DeflateResult>> running = new LinkedList<Future<DeflateResult>>();
+		
+		try {
+			int next = 0;
+			
+			while (next < height || !running.isEmpty()) {
+				// keep a few chunks in flight so that memory usage is bounded.
+				while (next < height && (executor == null ? running.isEmpty() : running.size() < threads * 2)) {
+					int end = Math.min(height, next + rowsPerChunk);
+					DeflateTask task = new DeflateTask(rows, next, end, end == height);
+					
+					if (executor == null) {
+						FutureTask<DeflateResult> future = new FutureTask<DeflateResult>(task);
+						future.run();
+						running.add(future);
+					} else {
+						running.add(executor.submit(task));
+					}
+					
+					next = end;
+				}
+				
+				DeflateResult result = waitFor(running.removeFirst());
+				adler.update(result.raw, 0, result.raw.length);
+				
+				// pending bytes go into the same IDAT with compressed data to avoid tiny chunks.
+				byte[] data = concat(pending, result.compressed);
+				pending = new byte[0];
+				
+				if (result.last) {
+					byte[] checksum = new byte[4];
+					writeInt(checksum, 0, (int)adler.getValue());
+					data = concat(data, checksum);
+				}
+				
+				writeChunk(out, IDAT, data, 0, data.length);
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		
+		writeChunk(out, IEND, new byte[0], 0, 0);
+		out.flush();
+	}
+	
+	private static DeflateResult waitFor(Future<DeflateResult> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding PNG.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			
+			throw new IOException("Fail to encode PNG. " + cause);
+		}
+	}
+	
+	private static byte[] concat(byte[] a, byte[] b) {
+		if (a.length == 0) {
+			return b;
+		}
+		
+		byte[] result = new byte[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+	
+	private static void writeInt(byte[] buf, int offset, int value) {
+		buf[offset] = (byte)(value >>> 24);
+		buf[offset + 1] = (byte)(value >>> 16);
+		buf[offset + 2] = (byte)(value >>> 8);
+		buf[offset + 3] = (byte)value;
+	}
+	
+	private static void writeChunk(OutputStream out, byte[] type, byte[] data, int offset, int length) throws IOException {
+		byte[] buf = new byte[4];
+		writeInt(buf, 0, length);
+		out.write(buf);
+		out.write(type);
+		out.write(data, offset, length);
+		
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(data, offset, length);
+		writeInt(buf, 0, (int)crc.getValue());
+		out.write(buf);
+	}
+	
+	/**
+	 * Filter rows with filter type byte prefixed.
+	 * @param rows
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	private byte[] filterRows(RowReader rows, int begin, int end) {
+		int rowBytes = rows.rowBytes;
+		int bpp = rows.bpp;
+		byte[] filtered = new byte[(end - begin) * (rowBytes + 1)];
+		byte[] previous = new byte[rowBytes];
+		byte[] current = new byte[rowBytes];
+		int[] sums = filter == FILTER_ADAPTIVE ? new int[FILTER_PAETH + 1] : null;
+		
+		if (begin > 0) {
+			rows.read(begin - 1, previous);
+		}
+		
+		for (int y = begin; y < end; y++) {
+			rows.read(y, current);
+			int dst = (y - begin) * (rowBytes + 1);
+			
+			int type = filter;
+			
+			if (sums != null) {
+				// pick filter with minimum sum of absolute differences.
+				sumFilters(current, previous, bpp, sums);
+				type = FILTER_NONE;
+				
+				for (int f = FILTER_SUB; f <= FILTER_PAETH; f++) {
+					if (sums[f] < sums[type]) {
+						type = f;
+					}
+				}
+			}
+			
+			filtered[dst] = (byte)type;
+			filterRow(type, current, previous, bpp, filtered, dst + 1);
+			
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		
+		return filtered;
+	}
+	
+	/**
+	 * Compute sum of absolute differences of all filters in one pass.
+	 */
+	private static void sumFilters(byte[] row, byte[] previous, int bpp, int[] sums) {
+		int none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+		
+		for (int i = 0; i < row.length; i++) {
+			int x = row[i];
+			int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+			int b = previous[i] & 0xff;
+			int c = i >= bpp ? previous[i - bpp] & 0xff : 0;
+			int p = a + b - c;
+			int pa = Math.abs(p - a);
+			int pb = Math.abs(p - b);
+			int pc = Math.abs(p - c);
+			int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+			
+			none += Math.abs(x);
+			sub += Math.abs((byte)(x - a));
+			up += Math.abs((byte)(x - b));
+			average += Math.abs((byte)(x - ((a + b) >> 1)));
+			paeth += Math.abs((byte)(x - predictor));
+		}
+		
+		sums[FILTER_NONE] = none;
+		sums[FILTER_SUB] = sub;
+		sums[FILTER_UP] = up;
+		sums[FILTER_AVERAGE] = average;
+		sums[FILTER_PAETH] = paeth;
+	}
+	
+	private static void filterRow(int filter, byte[] row, byte[] previous, int bpp, byte[] out, int offset) {
+		int length = row.length;
+		
+		switch (filter) {
+		case FILTER_NONE:
+			System.arraycopy(row, 0, out, offset, length);
+			break;
+			
+		case FILTER_SUB:
+			System.arraycopy(row, 0, out, offset, bpp);
+			
+			for (int i = bpp; i < length; i++) {
+				out[offset + i] = (byte)(row[i] - row[i - bpp]);
+			}
+			
+			break;
+			
+		case FILTER_UP:
+			for (int i = 0; i < length; i++) {
+				out[offset + i] = (byte)(row[i] - previous[i]);
+			}
+			
+			break;
+			
+		case FILTER_AVERAGE:
+			for (int i = 0; i < bpp; i++) {
+				out[offset + i] = (byte)(row[i] - ((previous[i] & 0xff) >> 1));
+			}
+			
+			for (int i = bpp; i < length; i++) {
+				out[offset + i] = (byte)(row[i] - (((row[i - bpp] & 0xff) + (previous[i] & 0xff)) >> 1));
+			}
+			
+			break;
+			
+		default:
+			// paeth predictor is always b in first pixel.
+			for (int i = 0; i < bpp; i++) {
+				out[offset + i] = (byte)(row[i] - previous[i]);
+			}
+			
+			for (int i = bpp; i < length; i++) {
+				int a = row[i - bpp] & 0xff;
+				int b = previous[i] & 0xff;
+				int c = previous[i - bpp] & 0xff;
+				int p = a + b - c;
+				int pa = Math.abs(p - a);
+				int pb = Math.abs(p - b);
+				int pc = Math.abs(p - c);
+				int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+				out[offset + i] = (byte)(row[i] - predictor);
+			}
+		}
+	}
+	
+	/**
+	 * Convert image rows to PNG samples.
+	 */
+	private static class RowReader {
+		private BufferedImage image;
+		private boolean alpha;
+		private int width;
+		private int[] data;
+		private int offset;
+		private int stride;
+		
+		int rowBytes;
+		int bpp;
+		
+		RowReader(BufferedImage image, boolean alpha) {
+			this.image = image;
+			this.alpha = alpha;
+			this.width = image.getWidth();
+			this.bpp = alpha ? 4 : 3;
+			this.rowBytes = width * bpp;
+			
+			int type = image.getType();
+			
+			if (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) {
+				data = ArgbImages.data(image);
+				offset = ArgbImages.offset(image);
+				stride = ArgbImages.scanlineStride(image);
+			}
+		}
+		
+		void read(int y, byte[] row) {
+			int[] pixels;
+			int start;
+			
+			if (data != null) {
+				pixels = data;
+				start = offset + y * stride;
+			} else {
+				pixels = image.getRGB(0, y, width, 1, null, 0, width);
+				start = 0;
+			}
+			
+			for (int x = 0, p = 0; x < width; x++) {
+				int argb = pixels[start + x];
+				row[p++] = (byte)(argb >> 16);
+				row[p++] = (byte)(argb >> 8);
+				row[p++] = (byte)argb;
+				
+				if (alpha) {
+					row[p++] = (byte)(argb >>> 24);
+				}
+			}
+		}
+	}
+	
+	private static class DeflateResult {
+		byte[] raw;
+		byte[] compressed;
+		boolean last;
+	}
+	
+	/**
+	 * Filter and deflate a range of rows.
+	 * 
+	 * Deflated data of all chunks are concatenated to a single deflate stream. All chunks but
+	 * the last are flushed to byte boundary without ending the stream. Tail of previous chunk is
+	 * used as dictionary so that compression ratio is almost the same as deflating in one go.
+	 */
+	private class DeflateTask implements Callable<DeflateResult> {
+		private RowReader rows;
+		private int begin;
+		private int end;
+		private boolean last;
+		
+		DeflateTask(RowReader rows, int begin, int end, boolean last) {
+			this.rows = rows;
+			this.begin = begin;
+			this.end = end;
+			this.last = last;
+		}
+		
+		@Override
+		public DeflateResult call() {
+			DeflateResult result = new DeflateResult();
+			result.raw = filterRows(rows, begin, end);
+			result.last = last;
+			
+			Deflater deflater = new Deflater(compressionLevel, true);
+			
+			try {
+				if (begin > 0) {
+					// filtered rows are deterministic, so tail of previous chunk can be filtered again here.
+					int dictionaryRows = Math.min(begin, (DICTIONARY_SIZE + rows.rowBytes) / (rows.rowBytes + 1));
+					byte[] previous = filterRows(rows, begin - dictionaryRows, begin);
+					int length = Math.min(DICTIONARY_SIZE, previous.length);
+					deflater.setDictionary(previous, previous.length - length, length);
+				}
+				
+				deflater.setInput(result.raw);
+				
+				if (last) {
+					deflater.finish();
+				}
+				
+				ByteArrayOutputStream out = new ByteArrayOutputStream(result.raw.length / 4 + 64);
+				byte[] buf = new byte[64 * 1024];
+				
+				while (true) {
+					int n = last ? deflater.deflate(buf) : deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					out.write(buf, 0, n);
+					
+					if (last ? deflater.finished() : n < buf.length) {
+						break;
+					}
+				}
+				
+				result.compressed = out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+			
+			return result;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.shelf;
+
+import dk.cego.spritemapper.OptimalLayouter;
+
+/**
+ * Adds shelf layouter in all modes. First-fit and best-fit modes are added with and without waste map.
+ */
+public class OptimalShelfLayouter extends OptimalLayouter {
+	public OptimalShelfLayouter() {
+		add(new ShelfLayouter());
+		
+		for (ShelfLayouter.Mode mode : new ShelfLayouter.Mode[] {ShelfLayouter.Mode.FIRST_FIT, ShelfLayouter.Mode.BEST_FIT}) {
+			add(new ShelfLayouter().setMode(mode));
+			add(new ShelfLayouter().setMode(mode).setUseWasteMap(true));
+		}
+	}
+}
@@ -19,12 +19,51 @@ package dk.cego.spritemapper.shelf;
 
 import dk.cego.spritemapper.SpriteLayouter;
 import dk.cego.spritemapper.Sprite;
+import dk.cego.spritemapper.spritecomparators.HeightComparator;
+import dk.cego.spritemapper.util.BestShortSideChooser;
+import dk.cego.spritemapper.util.FreeSpaceChooser;
+import dk.cego.spritemapper.util.FreeSpaceList;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class ShelfLayouter extends SpriteLayouter {
 	private final static int MAX_HEIGHT = 1024 * 1024 * 1024;
 	
+    public enum Mode {
+        /**
+         * Only the last shelf is open. Sprites are placed in given order.
+         */
+        NEXT_FIT,
+
+        /**
+         * Sprites are sorted by decreasing height and placed on the topmost shelf with room.
+         */
+        FIRST_FIT,
+
+        /**
+         * Sprites are sorted by decreasing height and placed on the shelf with least room left.
+         */
+        BEST_FIT
+    }
+
+    private Mode mode = Mode.NEXT_FIT;
+    private boolean useWasteMap = false;
+
+    public ShelfLayouter setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Fill space above sprites lower than their shelf. Only used by first-fit and best-fit modes.
+     */
+    public ShelfLayouter setUseWasteMap(boolean useWasteMap) {
+        this.useWasteMap = useWasteMap;
+        return this;
+    }
+
     public int layout(int maxWidth, int maxHeight, List<Sprite> sprites) {
     	if (sprites.isEmpty()) {
     		return 0;
@@ -34,6 +73,14 @@ public class ShelfLayouter extends SpriteLayouter {
             maxHeight = MAX_HEIGHT;
         }
         
+        if (mode == Mode.NEXT_FIT) {
+            return layoutNextFit(maxWidth, maxHeight, sprites);
+        }
+
+        return layoutDecreasingHeight(maxWidth, maxHeight, sprites);
+    }
+
+    private int layoutNextFit(int maxWidth, int maxHeight, List<Sprite> sprites) {
         int x = 0, y = 0, nextY = 0;
         int spacing = getSpacing();
         
@@ -72,15 +119,119 @@ public class ShelfLayouter extends SpriteLayouter {
             	s.mapNumber = mapNumber;
             	
             	x = s.right() + spacing;
-            	nextY = s.bottom();
+            	y = 0;
+            	nextY = s.bottom() + spacing;
             }
+
+            placed(s);
         }
         
         mapNumber++;
         return mapNumber;
     }
 
+    private int layoutDecreasingHeight(int maxWidth, int maxHeight, List<Sprite> sprites) {
+        int spacing = getSpacing();
+        List<Sprite> current = new ArrayList<Sprite>(sprites);
+
+        // sprites wider than sprite map can only be placed rotated.
+        for (Sprite s : current) {
+            if (s.w > maxWidth && s.h <= maxWidth) {
+                s.rotate();
+            }
+        }
+
+        // shelf height is set by its first sprite, which is never lower than later ones.
+        Collections.sort(current, new HeightComparator());
+
+        Shelves shelves = new Shelves();
+        FreeSpaceList wasteMap = useWasteMap ? new FreeSpaceList() : null;
+        FreeSpaceChooser wasteChooser = new BestShortSideChooser();
+        List<Sprite> remaining = new ArrayList<Sprite>(sprites.size());
+        int layoutedCount;
+        int mapNumber;
+
+        for (mapNumber = 0; !current.isEmpty(); mapNumber++) {
+            layoutedCount = 0;
+            remaining.clear();
+            shelves.reset(maxWidth, mode == Mode.BEST_FIT);
+            int nextY = 0;
+
+            if (wasteMap != null) {
+                wasteMap.clear();
+            }
+
+            for (Sprite s : current) {
+                // try space above lower sprites first.
+                if (wasteMap != null) {
+                    int w = s.w, h = s.h;
+                    int chosen = wasteChooser.choose(wasteMap, s);
+
+                    if (chosen >= 0) {
+                        if (!wasteMap.fits(chosen, s.w, s.h)) {
+                            s.rotate();
+                        }
+
+                        s.x = wasteMap.x[chosen];
+                        s.y = wasteMap.y[chosen];
+                        s.mapNumber = mapNumber;
+                        layoutedCount++;
+                        placed(s);
+
+                        wasteMap.split(chosen, s.w, s.h, spacing);
+                        continue;
+                    }
+
+                    // keep orientation sprites are sorted by.
+                    if (s.w != w || s.h != h) {
+                        s.rotate();
+                    }
+                }
+
+                int shelf = mode == Mode.BEST_FIT ? shelves.findBest(s.w) : shelves.findFirst(s.w);
+
+                if (shelf < 0) {
+                    // open a new shelf.
+                    if (s.w > maxWidth || nextY + s.h > maxHeight) {
+                        remaining.add(s);
+                        continue;
+                    }
+
+                    shelf = shelves.open(nextY, s.h);
+                    nextY += s.h + spacing;
+                }
+
+                s.x = shelves.used[shelf];
+                s.y = shelves.y[shelf];
+                s.mapNumber = mapNumber;
+                layoutedCount++;
+                placed(s);
+
+                shelves.place(shelf, s.w, spacing);
+
+                if (wasteMap != null && shelves.h[shelf] - s.h - spacing > 0) {
+                    wasteMap.add(s.x, s.y + s.h + spacing, s.w, shelves.h[shelf] - s.h - spacing);
+                }
+            }
+
+            if (layoutedCount == 0) {
+                throw new RuntimeException("No free space found.");
+            }
+
+            // swap remaining and current list.
+            List<Sprite> temp = remaining;
+            remaining = current;
+            current = temp;
+        }
+
+        return mapNumber;
+    }
+
     public String toString() {
-        return "Shelf()";
+        if (mode == Mode.NEXT_FIT) {
+            return "Shelf()";
+        }
+
+        return "Shelf(" + mode + (useWasteMap ? ",waste-map" : "") + ")";
     }
 }
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.shelf;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Open shelves of a sprite map. Shelves are numbered from top to bottom.
+ * 
+ * Remaining widths are kept in a max segment tree for first-fit lookups, and in a sorted set
+ * for best-fit lookups. Both take O(log shelves).
+ */
+class Shelves {
+	int[] y = new int[16];
+	int[] h = new int[16];
+	
+	/**
+	 * x of next sprite on shelf, including spacing after last sprite.
+	 */
+	int[] used = new int[16];
+	int size;
+	
+	private int width;
+	private boolean bestFit;
+	
+	/**
+	 * Max remaining width of shelves below each tree node. Leaves start at index leaves.
+	 */
+	private int[] tree = new int[32];
+	private int leaves = 16;
+	
+	/**
+	 * Remaining width and shelf number packed in longs.
+	 */
+	private TreeSet<Long> byRemaining = new TreeSet<Long>();
+	
+	void reset(int width, boolean bestFit) {
+		this.width = width;
+		this.bestFit = bestFit;
+		size = 0;
+		Arrays.fill(tree, Integer.MIN_VALUE);
+		byRemaining.clear();
+	}
+	
+	int remaining(int shelf) {
+		return width - used[shelf];
+	}
+	
+	int open(int y, int h) {
+		if (size == this.y.length) {
+			int capacity = size * 2;
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.h = Arrays.copyOf(this.h, capacity);
+			used = Arrays.copyOf(used, capacity);
+		}
+		
+		if (size == leaves) {
+			leaves *= 2;
+			tree = new int[leaves * 2];
+			Arrays.fill(tree, Integer.MIN_VALUE);
+			
+			for (int i = 0; i < size; i++) {
+				update(i);
+			}
+		}
+		
+		this.y[size] = y;
+		this.h[size] = h;
+		used[size] = 0;
+		
+		if (bestFit) {
+			byRemaining.add(key(width, size));
+		}
+		
+		update(size);
+		return size++;
+	}
+	
+	/**
+	 * Place a width wide sprite on shelf.
+	 */
+	void place(int shelf, int width, int spacing) {
+		if (bestFit) {
+			byRemaining.remove(key(remaining(shelf), shelf));
+		}
+		
+		used[shelf] += width + spacing;
+		
+		if (bestFit) {
+			byRemaining.add(key(remaining(shelf), shelf));
+		}
+		
+		update(shelf);
+	}
+	
+	/**
+	 * Find topmost shelf with at least width remaining.
+	 * @return shelf or -1.
+	 */
+	int findFirst(int width) {
+		if (tree[1] < width) {
+			return -1;
+		}
+		
+		int node = 1;
+		
+		while (node < leaves) {
+			node = tree[node * 2] >= width ? node * 2 : node * 2 + 1;
+		}
+		
+		return node - leaves;
+	}
+	
+	/**
+	 * Find shelf with least remaining width that is at least width. Ties go to topmost shelf.
+	 * @return shelf or -1.
+	 */
+	int findBest(int width) {
+		Long key = byRemaining.ceiling(key(width, 0));
+		return key == null ? -1 : (int)(key & 0xffffffffL);
+	}
+	
+	private void update(int shelf) {
+		int node = leaves + shelf;
+		tree[node] = remaining(shelf);
+		
+		for (node /= 2; node > 0; node /= 2) {
+			tree[node] = Math.max(tree[node * 2], tree[node * 2 + 1]);
+		}
+	}
+	
+	private static long key(int remaining, int shelf) {
+		return ((long)remaining << 32) | shelf;
+	}
+}
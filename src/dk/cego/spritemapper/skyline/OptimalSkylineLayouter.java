@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.skyline;
+
+import dk.cego.spritemapper.OptimalLayouter;
+
+/**
+ * Adds skyline layouter with all heuristics, with and without waste map.
+ */
+public class OptimalSkylineLayouter extends OptimalLayouter {
+	public OptimalSkylineLayouter() {
+		for (SkylineLayouter.Heuristic heuristic : SkylineLayouter.Heuristic.values()) {
+			add(new SkylineLayouter().setHeuristic(heuristic));
+			add(new SkylineLayouter().setHeuristic(heuristic).setUseWasteMap(true));
+		}
+	}
+}
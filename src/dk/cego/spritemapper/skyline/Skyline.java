@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.skyline;
+
+import java.util.Arrays;
+
+import dk.cego.spritemapper.util.FreeSpaceList;
+
+/**
+ * Skyline of a sprite map. Each segment is a horizontal line at height y from x to x + w.
+ * Segments are sorted by x and cover the whole map width.
+ */
+class Skyline {
+	int[] x = new int[16];
+	int[] y = new int[16];
+	int[] w = new int[16];
+	int size;
+	
+	private int width;
+	private int height;
+	private int spacing;
+	
+	void reset(int width, int height, int spacing) {
+		this.width = width;
+		this.height = height;
+		this.spacing = spacing;
+		
+		x[0] = 0;
+		y[0] = 0;
+		w[0] = width;
+		size = 1;
+	}
+	
+	/**
+	 * Find y of a width x height sprite placed at the start of segment i.
+	 * @return y or -1 if sprite doesn't fit.
+	 */
+	int fit(int i, int width, int height) {
+		if (x[i] + width > this.width) {
+			return -1;
+		}
+		
+		int cover = cover(i, width);
+		int top = 0;
+		
+		for (int j = i; cover > 0; j++) {
+			top = Math.max(top, y[j]);
+			
+			if (top + height > this.height) {
+				return -1;
+			}
+			
+			cover -= w[j];
+		}
+		
+		return top;
+	}
+	
+	/**
+	 * Area left unusable below a width wide sprite placed at segment i with given top.
+	 */
+	long waste(int i, int width, int top) {
+		int cover = cover(i, width);
+		long waste = 0;
+		
+		for (int j = i; cover > 0; j++) {
+			waste += (long)(top - y[j]) * Math.min(cover, w[j]);
+			cover -= w[j];
+		}
+		
+		return waste;
+	}
+	
+	/**
+	 * Raise skyline above a width x height sprite placed at segment i with given top.
+	 * @param wasteMap receives free spaces left below sprite, or null.
+	 */
+	void place(int i, int width, int height, int top, FreeSpaceList wasteMap) {
+		int left = x[i];
+		int cover = cover(i, width);
+		
+		if (wasteMap != null) {
+			int remaining = cover;
+			
+			// keep spacing to sprite above and to the right.
+			for (int j = i; remaining > 0; j++) {
+				int wasteWidth = Math.min(remaining, w[j]) - spacing;
+				int wasteHeight = top - y[j] - spacing;
+				
+				if (wasteWidth > 0 && wasteHeight > 0) {
+					wasteMap.add(x[j], y[j], wasteWidth, wasteHeight);
+				}
+				
+				remaining -= w[j];
+			}
+		}
+		
+		insert(i, left, top + height + spacing, cover);
+		
+		// cut segments now below the new one.
+		int right = left + cover;
+		
+		while (i + 1 < size && x[i + 1] < right) {
+			int shrink = right - x[i + 1];
+			
+			if (w[i + 1] <= shrink) {
+				remove(i + 1);
+			} else {
+				x[i + 1] += shrink;
+				w[i + 1] -= shrink;
+				break;
+			}
+		}
+		
+		// merge neighbours at same height.
+		for (int j = Math.max(0, i - 1); j + 1 < size && j <= i + 1; ) {
+			if (y[j] == y[j + 1]) {
+				w[j] += w[j + 1];
+				remove(j + 1);
+			} else {
+				j++;
+			}
+		}
+	}
+	
+	/**
+	 * Width of skyline covered by a width wide sprite at segment i, including spacing.
+	 */
+	private int cover(int i, int width) {
+		return Math.min(width + spacing, this.width - x[i]);
+	}
+	
+	private void insert(int i, int x, int y, int w) {
+		if (size == this.x.length) {
+			this.x = Arrays.copyOf(this.x, size * 2);
+			this.y = Arrays.copyOf(this.y, size * 2);
+			this.w = Arrays.copyOf(this.w, size * 2);
+		}
+		
+		System.arraycopy(this.x, i, this.x, i + 1, size - i);
+		System.arraycopy(this.y, i, this.y, i + 1, size - i);
+		System.arraycopy(this.w, i, this.w, i + 1, size - i);
+		this.x[i] = x;
+		this.y[i] = y;
+		this.w[i] = w;
+		size++;
+	}
+	
+	private void remove(int i) {
+		System.arraycopy(x, i + 1, x, i, size - i - 1);
+		System.arraycopy(y, i + 1, y, i, size - i - 1);
+		System.arraycopy(w, i + 1, w, i, size - i - 1);
+		size--;
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.skyline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.cego.spritemapper.Sprite;
+import dk.cego.spritemapper.SpriteLayouter;
+import dk.cego.spritemapper.util.BestShortSideChooser;
+import dk.cego.spritemapper.util.FreeSpaceChooser;
+import dk.cego.spritemapper.util.FreeSpaceList;
+
+/**
+ * Skyline layout algorithm. Only the top edge of placed sprites is tracked, so state of a sprite map
+ * is a list of horizontal segments. Each sprite is placed on the segment chosen by heuristic.
+ * 
+ * With waste map, spaces left below sprites are kept in a guillotine free space list and filled first.
+ */
+public class SkylineLayouter extends SpriteLayouter {
+	private final static int MAX_HEIGHT = 1024 * 1024 * 1024;
+	
+	public enum Heuristic {
+		/**
+		 * Choose position with lowest sprite bottom.
+		 */
+		BOTTOM_LEFT,
+		
+		/**
+		 * Choose position leaving least area below sprite.
+		 */
+		MIN_WASTE
+	}
+	
+	private Heuristic heuristic = Heuristic.BOTTOM_LEFT;
+	private boolean useWasteMap = false;
+	
+	public SkylineLayouter setHeuristic(Heuristic heuristic) {
+		this.heuristic = heuristic;
+		return this;
+	}
+	
+	public SkylineLayouter setUseWasteMap(boolean useWasteMap) {
+		this.useWasteMap = useWasteMap;
+		return this;
+	}
+	
+	public String toString() {
+		return "Skyline(" + heuristic + (useWasteMap ? ",waste-map" : "") + ")";
+	}
+	
+	public int layout(int maxWidth, int maxHeight, List<Sprite> sprites) {
+		if (sprites.isEmpty()) {
+			return 0;
+		}
+		
+		if (maxHeight == 0) {
+			maxHeight = MAX_HEIGHT;
+		}
+		
+		int spacing = getSpacing();
+		Skyline skyline = new Skyline();
+		FreeSpaceList wasteMap = useWasteMap ? new FreeSpaceList() : null;
+		FreeSpaceChooser wasteChooser = new BestShortSideChooser();
+		
+		List<Sprite> current = new ArrayList<Sprite>(sprites);
+		List<Sprite> remaining = new ArrayList<Sprite>(sprites.size());
+		int layoutedCount;
+		int mapNumber;
+		
+		for (mapNumber = 0; !current.isEmpty(); mapNumber++) {
+			layoutedCount = 0;
+			remaining.clear();
+			skyline.reset(maxWidth, maxHeight, spacing);
+			
+			if (wasteMap != null) {
+				wasteMap.clear();
+			}
+			
+			for (Sprite s : current) {
+				// try spaces below skyline first.
+				if (wasteMap != null) {
+					int chosen = wasteChooser.choose(wasteMap, s);
+					
+					if (chosen >= 0) {
+						if (!wasteMap.fits(chosen, s.w, s.h)) {
+							s.rotate();
+						}
+						
+						s.x = wasteMap.x[chosen];
+						s.y = wasteMap.y[chosen];
+						s.mapNumber = mapNumber;
+						layoutedCount++;
+						placed(s);
+						
+						wasteMap.split(chosen, s.w, s.h, spacing);
+						continue;
+					}
+				}
+				
+				int best = -1, bestTop = 0;
+				boolean bestRotated = false;
+				long bestScore = 0, bestSecondScore = 0;
+				
+				for (int i = 0; i < skyline.size; i++) {
+					for (int r = 0; r < 2; r++) {
+						boolean rotated = r == 1;
+						
+						if (rotated && s.w == s.h) {
+							break;
+						}
+						
+						int w = rotated ? s.h : s.w;
+						int h = rotated ? s.w : s.h;
+						int top = skyline.fit(i, w, h);
+						
+						if (top < 0) {
+							continue;
+						}
+						
+						long score, secondScore;
+						
+						if (heuristic == Heuristic.MIN_WASTE) {
+							score = skyline.waste(i, w, top);
+							secondScore = top + h;
+						} else {
+							score = top + h;
+							secondScore = skyline.w[i];
+						}
+						
+						if (best < 0 || score < bestScore || (score == bestScore && secondScore < bestSecondScore)) {
+							best = i;
+							bestTop = top;
+							bestRotated = rotated;
+							bestScore = score;
+							bestSecondScore = secondScore;
+						}
+					}
+				}
+				
+				// cannot find suitable space in current sprite map? add sprite to remaining for next round.
+				if (best < 0) {
+					remaining.add(s);
+					continue;
+				}
+				
+				if (bestRotated) {
+					s.rotate();
+				}
+				
+				s.x = skyline.x[best];
+				s.y = bestTop;
+				s.mapNumber = mapNumber;
+				layoutedCount++;
+				placed(s);
+				
+				skyline.place(best, s.w, s.h, bestTop, wasteMap);
+			}
+			
+			if (layoutedCount == 0) {
+				throw new RuntimeException("No free space found.");
+			}
+			
+			// swap remaining and current list.
+			List<Sprite> temp = remaining;
+			remaining = current;
+			current = temp;
+		}
+		
+		return mapNumber;
+	}
+}
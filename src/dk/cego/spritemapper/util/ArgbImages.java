@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Helpers for the canonical in-memory pixel format, i.e. <code>BufferedImage.TYPE_INT_ARGB</code>.
+ * 
+ * Pixels of such images can be accessed as an <code>int[]</code> directly. Sub-images share
+ * the array with their parents, so always use {@link #offset(BufferedImage)} and
+ * {@link #scanlineStride(BufferedImage)} to locate pixels.
+ */
+public class ArgbImages {
+	/**
+	 * Convert image to <code>TYPE_INT_ARGB</code> if it's in any other type.
+	 * @param image
+	 * @return
+	 */
+	public static BufferedImage normalize(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return image;
+		}
+		
+		BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = argb.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return argb;
+	}
+	
+	public static boolean isArgb(BufferedImage image) {
+		return image.getType() == BufferedImage.TYPE_INT_ARGB;
+	}
+	
+	/**
+	 * Get backing pixel array of an ARGB image.
+	 * @param image
+	 * @return
+	 */
+	public static int[] data(BufferedImage image) {
+		return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+	}
+	
+	/**
+	 * Get index of top-left pixel of an ARGB image in its backing array.
+	 * @param image
+	 * @return
+	 */
+	public static int offset(BufferedImage image) {
+		Raster r = image.getRaster();
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel)r.getSampleModel();
+		return r.getDataBuffer().getOffset() +
+			sm.getOffset(-r.getSampleModelTranslateX(), -r.getSampleModelTranslateY());
+	}
+	
+	/**
+	 * Get distance between two vertically adjacent pixels of an ARGB image in its backing array.
+	 * @param image
+	 * @return
+	 */
+	public static int scanlineStride(BufferedImage image) {
+		return ((SinglePixelPackedSampleModel)image.getRaster().getSampleModel()).getScanlineStride();
+	}
+}
@@ -17,12 +17,53 @@
  */
 package dk.cego.spritemapper.util;
 
-import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.Sprite;
 
+/**
+ * Chooses the space leaving the shortest leftover long side.
+ */
 public class BestLongSideChooser implements FreeSpaceChooser {
-    public int choose(Rectangle space1, Rectangle space2, Sprite sprite) {
-        return Math.max(space1.w - sprite.w, space1.h - sprite.h) -
-               Math.max(space2.w - sprite.w, space2.h - sprite.h);
+    public long score(FreeSpaceList spaces, int index, int width, int height) {
+        return Math.max(spaces.w[index] - width, spaces.h[index] - height);
+    }
+
+    public int choose(FreeSpaceList spaces, Sprite sprite) {
+        int[] ws = spaces.w, hs = spaces.h;
+        int w = sprite.w, h = sprite.h;
+        boolean tilted = false;
+
+        // final orientation is only known after the scan, so keep the best space for both.
+        int best = -1, bestTilted = -1;
+        long bestScore = 0, bestTiltedScore = 0;
+
+        for (int i = 0, n = spaces.size(); i < n; i++) {
+            if (w > ws[i] || h > hs[i]) {
+                int tmp = w; w = h; h = tmp;
+                tilted = !tilted;
+
+                if (w > ws[i] || h > hs[i]) {
+                    continue;
+                }
+            }
+
+            long score = score(spaces, i, sprite.w, sprite.h);
+            if (best < 0 || score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+
+            long tiltedScore = score(spaces, i, sprite.h, sprite.w);
+            if (bestTilted < 0 || tiltedScore < bestTiltedScore) {
+                bestTilted = i;
+                bestTiltedScore = tiltedScore;
+            }
+        }
+
+        if (tilted) {
+            sprite.rotate();
+            return bestTilted;
+        }
+
+        return best;
     }
 }
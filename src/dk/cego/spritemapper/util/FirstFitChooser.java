@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+import dk.cego.spritemapper.Sprite;
+
+/**
+ * Chooses the first space. Used by layouters without a chooser.
+ */
+public class FirstFitChooser implements FreeSpaceChooser {
+	public long score(FreeSpaceList spaces, int index, int width, int height) {
+		return 0;
+	}
+
+	public int choose(FreeSpaceList spaces, Sprite sprite) {
+		int[] ws = spaces.w, hs = spaces.h;
+		int w = sprite.w, h = sprite.h;
+		boolean tilted = false;
+		int best = -1;
+
+		for (int i = 0, n = spaces.size(); i < n; i++) {
+			if (w > ws[i] || h > hs[i]) {
+				int tmp = w; w = h; h = tmp;
+				tilted = !tilted;
+
+				if (w > ws[i] || h > hs[i]) {
+					continue;
+				}
+			}
+
+			// keep scanning, orientation depends on all spaces.
+			if (best < 0) {
+				best = i;
+			}
+		}
+
+		if (tilted) {
+			sprite.rotate();
+		}
+
+		return best;
+	}
+}
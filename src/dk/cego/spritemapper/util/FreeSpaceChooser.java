@@ -17,9 +17,25 @@
  */
 package dk.cego.spritemapper.util;
 
-import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.Sprite;
 
+/**
+ * Chooses the free space to place a sprite in.
+ *
+ * While spaces are scanned the sprite is tilted whenever it does not fit the
+ * current space, and spaces it fits in either orientation are candidates.
+ * Candidates are scored by {@link #score} with the orientation the sprite ends
+ * up in, and the first candidate with the lowest score is chosen.
+ */
 public interface FreeSpaceChooser {
-    public int choose(Rectangle space1, Rectangle space2, Sprite sprite);
+    /**
+     * Score placing a width x height sprite in free space at index. Lower is better.
+     */
+    public long score(FreeSpaceList spaces, int index, int width, int height);
+
+    /**
+     * Choose a space for sprite, tilting the sprite as described above.
+     * @return index of the chosen space, or -1 if the sprite fits no space.
+     */
+    public int choose(FreeSpaceList spaces, Sprite sprite);
 }
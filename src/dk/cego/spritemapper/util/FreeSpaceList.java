@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+import java.util.Arrays;
+
+/**
+ * Free spaces stored in parallel arrays.
+ * 
+ * Free spaces are kept in the order they are added. Arrays are reused by later free spaces,
+ * so adding and removing free spaces doesn't allocate once the arrays are large enough.
+ * Arrays are replaced when they grow, so don't keep references to them across {@link #add}.
+ */
+public class FreeSpaceList {
+	private final static int INITIAL_CAPACITY = 16;
+	
+	public int[] x = new int[INITIAL_CAPACITY];
+	public int[] y = new int[INITIAL_CAPACITY];
+	public int[] w = new int[INITIAL_CAPACITY];
+	public int[] h = new int[INITIAL_CAPACITY];
+	private int size = 0;
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int capacity() {
+		return x.length;
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Add a free space to the end of list.
+	 * @return index of new free space.
+	 */
+	public int add(int x, int y, int w, int h) {
+		if (size == this.x.length) {
+			int capacity = size * 2;
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.w = Arrays.copyOf(this.w, capacity);
+			this.h = Arrays.copyOf(this.h, capacity);
+		}
+		
+		this.x[size] = x;
+		this.y[size] = y;
+		this.w[size] = w;
+		this.h[size] = h;
+		return size++;
+	}
+	
+	/**
+	 * Remove free space at index. Following free spaces are moved one index down.
+	 * @param index
+	 */
+	public void remove(int index) {
+		int moved = size - index - 1;
+		
+		if (moved > 0) {
+			System.arraycopy(x, index + 1, x, index, moved);
+			System.arraycopy(y, index + 1, y, index, moved);
+			System.arraycopy(w, index + 1, w, index, moved);
+			System.arraycopy(h, index + 1, h, index, moved);
+		}
+		
+		size--;
+	}
+	
+	/**
+	 * Remove all free spaces marked in removed, keeping the order of the rest.
+	 * @param removed removed flags indexed by free space.
+	 * @param indexes receives new index of each free space, or -1 if it's removed.
+	 * @return number of removed free spaces.
+	 */
+	public int removeAll(boolean[] removed, int[] indexes) {
+		int count = 0;
+		
+		for (int i = 0; i < size; i++) {
+			if (removed[i]) {
+				indexes[i] = -1;
+				continue;
+			}
+			
+			x[count] = x[i];
+			y[count] = y[i];
+			w[count] = w[i];
+			h[count] = h[i];
+			indexes[i] = count++;
+		}
+		
+		int result = size - count;
+		size = count;
+		return result;
+	}
+	
+	/**
+	 * Place a width x height rectangle at top left corner of free space at index. The free space
+	 * is replaced by the spaces right of and below the rectangle, separated from it and each other
+	 * by spacing.
+	 */
+	public void split(int index, int width, int height, int spacing) {
+		int x = this.x[index], y = this.y[index], w = this.w[index], h = this.h[index];
+		remove(index);
+		
+		if (w - width - spacing > 0) {
+			add(x + width + spacing, y, w - width - spacing, height);
+		}
+		
+		if (h - height - spacing > 0) {
+			add(x, y + height + spacing, w, h - height - spacing);
+		}
+	}
+	
+	/**
+	 * Return true if a width x height rectangle fits free space at index.
+	 */
+	public boolean fits(int index, int width, int height) {
+		return width <= w[index] && height <= h[index];
+	}
+}
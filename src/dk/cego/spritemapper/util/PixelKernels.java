@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+/**
+ * Pixel loops on <code>TYPE_INT_ARGB</code> pixel arrays.
+ * 
+ * Loops are written in plain Java with simple shapes, so that JIT can unroll and vectorize them.
+ * Scan loops use <code>VectorScanKernels</code> if it's built and the <code>jdk.incubator.vector</code> module
+ * is added, e.g. <code>java --add-modules jdk.incubator.vector</code>. Set system property
+ * <code>spritemapper.vector</code> to <code>false</code> to always use scalar loops.
+ * Pixels are located by offset and stride as described in {@link ArgbImages}.
+ */
+public class PixelKernels {
+	private static final ScanKernels SCAN = loadScanKernels();
+	
+	/**
+	 * <code>MUL8[a][b]</code> is <code>a * b / 255</code>, rounded the same way as Java2D does.
+	 */
+	private static final byte[][] MUL8 = new byte[256][256];
+	
+	/**
+	 * <code>DIV8[a][b]</code> is <code>b * 255 / a</code>, rounded the same way as Java2D does.
+	 */
+	private static final byte[][] DIV8 = new byte[256][256];
+	
+	static {
+		for (int i = 1; i < 256; i++) {
+			int inc = (i << 16) + (i << 8) + i;
+			int val = inc + (1 << 23);
+			
+			for (int j = 1; j < 256; j++) {
+				MUL8[i][j] = (byte)(val >>> 24);
+				val += inc;
+			}
+		}
+		
+		for (int i = 1; i < 256; i++) {
+			int inc = (int)(((0xffL << 24) + i / 2) / i);
+			int val = 1 << 23;
+			
+			for (int j = 0; j < i; j++) {
+				DIV8[i][j] = (byte)(val >>> 24);
+				val += inc;
+			}
+			
+			for (int j = i; j < 256; j++) {
+				DIV8[i][j] = (byte)255;
+			}
+		}
+	}
+	
+	/**
+	 * Load Vector API kernels if they can be used. Otherwise use scalar loops.
+	 */
+	private static ScanKernels loadScanKernels() {
+		if (!"false".equals(System.getProperty("spritemapper.vector"))) {
+			try {
+				return Class.forName("dk.cego.spritemapper.util.VectorScanKernels").asSubclass(ScanKernels.class)
+					.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				// kernels are not built.
+			} catch (LinkageError e) {
+				// jdk.incubator.vector module is not added.
+			}
+		}
+		
+		return new ScalarScanKernels();
+	}
+	
+	/**
+	 * Test whether all pixels in a row are transparent.
+	 * A pixel is not transparent if <code>(pixel &amp; alphaMask) != 0</code>.
+	 * @param pixels
+	 * @param offset
+	 * @param length
+	 * @param alphaMask
+	 * @return
+	 */
+	public static boolean isTransparent(int[] pixels, int offset, int length, int alphaMask) {
+		return SCAN.isTransparent(pixels, offset, length, alphaMask);
+	}
+	
+	/**
+	 * Find first non-transparent pixel in <code>pixels[from]</code> to <code>pixels[to - 1]</code>.
+	 * @param pixels
+	 * @param from
+	 * @param to
+	 * @param alphaMask
+	 * @return index of pixel or -1 if all pixels are transparent.
+	 */
+	public static int indexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		return SCAN.indexOfOpaque(pixels, from, to, alphaMask);
+	}
+	
+	/**
+	 * Find last non-transparent pixel in <code>pixels[from]</code> to <code>pixels[to - 1]</code>.
+	 * @param pixels
+	 * @param from
+	 * @param to
+	 * @param alphaMask
+	 * @return index of pixel or -1 if all pixels are transparent.
+	 */
+	public static int lastIndexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		return SCAN.lastIndexOfOpaque(pixels, from, to, alphaMask);
+	}
+	
+	/**
+	 * Copy w x h pixels.
+	 * If rotated, source is rotated 90 degrees clockwise and takes h x w pixels. Rotation is undone in destination.
+	 */
+	public static void copy(int[] src, int srcOffset, int srcStride,
+			int[] dst, int dstOffset, int dstStride, int w, int h, boolean rotated) {
+		if (!rotated) {
+			for (int y = 0; y < h; y++) {
+				System.arraycopy(src, srcOffset + y * srcStride, dst, dstOffset + y * dstStride, w);
+			}
+			
+			return;
+		}
+		
+		// destination row y is source column h - 1 - y.
+		for (int y = 0; y < h; y++) {
+			int s = srcOffset + h - 1 - y;
+			int d = dstOffset + y * dstStride;
+			
+			for (int x = 0; x < w; x++) {
+				dst[d + x] = src[s + x * srcStride];
+			}
+		}
+	}
+	
+	/**
+	 * Draw w x h pixels on a full transparent destination with source over rule.
+	 * Result is exactly the same as drawing with <code>Graphics2D</code>, which premultiplies
+	 * semi-transparent pixels and divides them back.
+	 * If rotated, source is rotated 90 degrees clockwise in destination and takes h x w pixels.
+	 */
+	public static void drawOverTransparent(int[] src, int srcOffset, int srcStride,
+			int[] dst, int dstOffset, int dstStride, int w, int h, boolean rotated) {
+		for (int y = 0; y < h; y++) {
+			int s = srcOffset + y * srcStride;
+			
+			if (!rotated) {
+				int d = dstOffset + y * dstStride;
+				
+				for (int x = 0; x < w; x++) {
+					dst[d + x] = unpremultiply(premultiply(src[s + x]));
+				}
+			} else {
+				int d = dstOffset + h - 1 - y;
+				
+				for (int x = 0; x < w; x++) {
+					dst[d + x * dstStride] = unpremultiply(premultiply(src[s + x]));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Convert a non-premultiplied ARGB pixel to premultiplied one.
+	 * @param argb
+	 * @return
+	 */
+	public static int premultiply(int argb) {
+		int a = argb >>> 24;
+		
+		if (a == 0xff) {
+			return argb;
+		}
+		
+		if (a == 0) {
+			return 0;
+		}
+		
+		byte[] mul = MUL8[a];
+		return (a << 24) | ((mul[(argb >> 16) & 0xff] & 0xff) << 16) |
+			((mul[(argb >> 8) & 0xff] & 0xff) << 8) | (mul[argb & 0xff] & 0xff);
+	}
+	
+	/**
+	 * Convert a premultiplied ARGB pixel to non-premultiplied one.
+	 * @param argb
+	 * @return
+	 */
+	public static int unpremultiply(int argb) {
+		int a = argb >>> 24;
+		
+		if (a == 0xff || a == 0) {
+			return argb;
+		}
+		
+		byte[] div = DIV8[a];
+		return (a << 24) | ((div[(argb >> 16) & 0xff] & 0xff) << 16) |
+			((div[(argb >> 8) & 0xff] & 0xff) << 8) | (div[argb & 0xff] & 0xff);
+	}
+	
+	/**
+	 * Compute 64-bit FNV-1a hash of a w x h pixel region. Size of region is hashed as well.
+	 * @return
+	 */
+	public static long hash(int[] pixels, int offset, int stride, int w, int h) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ w) * 0x100000001b3L;
+		hash = (hash ^ h) * 0x100000001b3L;
+		
+		for (int y = 0; y < h; y++) {
+			for (int i = offset + y * stride, end = i + w; i < end; i++) {
+				hash = (hash ^ pixels[i]) * 0x100000001b3L;
+			}
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Compare two w x h pixel regions.
+	 * @return true if all pixels are the same.
+	 */
+	public static boolean equals(int[] a, int aOffset, int aStride, int[] b, int bOffset, int bStride, int w, int h) {
+		for (int y = 0; y < h; y++) {
+			if (!SCAN.equals(a, aOffset + y * aStride, b, bOffset + y * bStride, w)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+/**
+ * Scan loops in plain Java with simple shapes, so that JIT can unroll and vectorize them.
+ */
+public class ScalarScanKernels implements ScanKernels {
+	private static final int BLOCK = 16;
+
+	public boolean isTransparent(int[] pixels, int offset, int length, int alphaMask) {
+		int end = offset + length;
+		int i = offset;
+
+		// or pixels in blocks and only test once per block.
+		for (int blockEnd = end - BLOCK; i <= blockEnd; i += BLOCK) {
+			int bits = 0;
+
+			for (int j = i; j < i + BLOCK; j++) {
+				bits |= pixels[j];
+			}
+
+			if ((bits & alphaMask) != 0) {
+				return false;
+			}
+		}
+
+		for (; i < end; i++) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int indexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		for (int i = from; i < to; i++) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public int lastIndexOfOpaque(int[] pixels, int from, int to, int alphaMask) {
+		for (int i = to - 1; i >= from; i--) {
+			if ((pixels[i] & alphaMask) != 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public boolean equals(int[] a, int aOffset, int[] b, int bOffset, int length) {
+		for (int i = aOffset, j = bOffset, end = aOffset + length; i < end; i++, j++) {
+			if (a[i] != b[j]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
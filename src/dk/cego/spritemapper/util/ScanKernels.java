@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Huan Du <i@huandu.me>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.cego.spritemapper.util;
+
+/**
+ * Pixel scan loops used by {@link PixelKernels}. Pixels are <code>TYPE_INT_ARGB</code> ints.
+ * A pixel is not transparent if <code>(pixel &amp; alphaMask) != 0</code>.
+ */
+public interface ScanKernels {
+	/**
+	 * Test whether all pixels in <code>pixels[offset]</code> to <code>pixels[offset + length - 1]</code> are transparent.
+	 */
+	public boolean isTransparent(int[] pixels, int offset, int length, int alphaMask);
+
+	/**
+	 * Find first non-transparent pixel in <code>pixels[from]</code> to <code>pixels[to - 1]</code>.
+	 * @return index of pixel or -1 if all pixels are transparent.
+	 */
+	public int indexOfOpaque(int[] pixels, int from, int to, int alphaMask);
+
+	/**
+	 * Find last non-transparent pixel in <code>pixels[from]</code> to <code>pixels[to - 1]</code>.
+	 * @return index of pixel or -1 if all pixels are transparent.
+	 */
+	public int lastIndexOfOpaque(int[] pixels, int from, int to, int alphaMask);
+
+	/**
+	 * Compare <code>length</code> pixels of two rows.
+	 * @return true if all pixels are the same.
+	 */
+	public boolean equals(int[] a, int aOffset, int[] b, int bOffset, int length);
+}
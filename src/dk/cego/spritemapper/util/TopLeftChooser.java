@@ -17,12 +17,45 @@
  */
 package dk.cego.spritemapper.util;
 
-import dk.cego.spritemapper.Rectangle;
 import dk.cego.spritemapper.Sprite;
 
+/**
+ * Chooses the topmost space, and the leftmost of those.
+ */
 public class TopLeftChooser implements FreeSpaceChooser {
-    public int choose(Rectangle space1, Rectangle space2, Sprite sprite) {
-        return space1.y == space2.y ? space1.x - space2.x : space1.y - space2.y;
+    public long score(FreeSpaceList spaces, int index, int width, int height) {
+        return ((long)spaces.y[index] << 32) + spaces.x[index];
     }
-}
 
+    public int choose(FreeSpaceList spaces, Sprite sprite) {
+        int[] ws = spaces.w, hs = spaces.h;
+        int w = sprite.w, h = sprite.h;
+        boolean tilted = false;
+        int best = -1;
+        long bestScore = 0;
+
+        for (int i = 0, n = spaces.size(); i < n; i++) {
+            if (w > ws[i] || h > hs[i]) {
+                int tmp = w; w = h; h = tmp;
+                tilted = !tilted;
+
+                if (w > ws[i] || h > hs[i]) {
+                    continue;
+                }
+            }
+
+            // score does not depend on orientation.
+            long score = score(spaces, i, w, h);
+            if (best < 0 || score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+
+        if (tilted) {
+            sprite.rotate();
+        }
+
+        return best;
+    }
+}